@@ -0,0 +1,61 @@
+package geodes.sms.astparser;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Decoding of the method source from a JSONL record shaped like the CodeSearchNet ones, whose token arrays
+ *  make up most of the line: Gson decoding of the whole record to a Map against the streaming field extractor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({"small", "medium", "huge"})
+    private String size;
+
+    private String line;
+
+    private final Gson gson = new Gson();
+
+    private final JsonFieldExtractor extractor = new JsonFieldExtractor(JsonFieldExtractor.ORIGINAL_STRING);
+
+    @Setup
+    public void setUp() {
+        String source = Fixtures.source(size);
+        String[] tokens = source.split("\\s+|(?=[(){};.,])|(?<=[(){};.,])");
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("repo", "geodes/java-ast-to-graph");
+        record.put("path", "src/main/java/Fixture.java");
+        record.put("func_name", "Fixture." + size);
+        record.put("original_string", source);
+        record.put("language", "java");
+        record.put("code", source);
+        record.put("code_tokens", Arrays.asList(tokens));
+        record.put("docstring", "Benchmark fixture.");
+        record.put("docstring_tokens", Arrays.asList("Benchmark", "fixture", "."));
+        record.put("sha", "0123456789abcdef0123456789abcdef01234567");
+        record.put("url", "https://github.com/geodes/java-ast-to-graph/blob/main/Fixture.java#L1-L10");
+        record.put("partition", "train");
+        line = gson.toJson(record);
+    }
+
+    @Benchmark
+    public String gsonMap() {
+        Map<?, ?> record = gson.fromJson(line, Map.class);
+        return record.get("original_string").toString();
+    }
+
+    @Benchmark
+    public String fieldExtractor() {
+        return extractor.extract(line)[0];
+    }
+}
@@ -0,0 +1,78 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ParserConfiguration;
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.GraphToBinary;
+import geodes.sms.astparser.graph.GraphToCSV;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.javaparser.Providers.provider;
+
+/**
+ *  Serialization of an already built graph by the CSV and binary exporters, into a temporary directory
+ *  that is recreated for every iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportBenchmark {
+    @Param({"small", "medium", "huge"})
+    private String size;
+
+    private CompactGraph graph;
+
+    private Path outputDir;
+
+    private GraphToCSV csv;
+
+    private GraphToBinary binary;
+
+    @Setup(Level.Trial)
+    public void build() {
+        graph = new MethodASTParser.Method(new JavaParser(new ParserConfiguration())
+                .parse(ParseStart.METHOD_DECLARATION, provider(Fixtures.source(size)))
+                .getResult()
+                .orElseThrow(), new CompactGraph()).getCompactGraph();
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        outputDir = Files.createTempDirectory("export-benchmark");
+        csv = new GraphToCSV(outputDir.toString());
+        binary = new GraphToBinary(outputDir.toString());
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        csv.close();
+        binary.close();
+        try (var files = Files.list(outputDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(outputDir);
+    }
+
+    @Benchmark
+    public GraphToCSV writeCSV() {
+        csv.writeGraph(graph);
+        return csv;
+    }
+
+    @Benchmark
+    public GraphToBinary writeBinary() {
+        binary.writeGraph(graph);
+        return binary;
+    }
+}
@@ -0,0 +1,64 @@
+package geodes.sms.astparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  Method sources used by the benchmarks: a small accessor, a medium method mixing loops, calls and lambdas,
+ *  and a huge generated method with hundreds of statements and deeply nested lambdas.
+ */
+final class Fixtures {
+    private Fixtures() { }
+
+    static String source(String size) {
+        switch (size) {
+            case "small":
+            case "medium":
+                return resource("fixtures/" + size + ".java");
+            case "huge":
+                return huge(400, 12);
+            default:
+                throw new IllegalArgumentException("Unknown fixture size: " + size);
+        }
+    }
+
+    private static String resource(String name) {
+        try (InputStream stream = Fixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IllegalArgumentException("Missing fixture: " + name);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private static String huge(int statements, int lambdaDepth) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public List<Result> process(List<Item> items, Context context, Options options) {\n");
+        sb.append("    List<Result> results = new ArrayList<>();\n");
+        for (int i = 0; i < statements; i++) {
+            sb.append(String.format("    Item item%d = items.get(%d %% items.size());%n", i, i));
+            sb.append(String.format("    String key%d = context.resolve(item%d.getName(), options.prefix());%n", i, i));
+            sb.append(String.format("    results.add(new Result(key%d, item%d.getValue() * %d));%n", i, i, i));
+            if (i > 0) {
+                sb.append(String.format("    key%d = context.merge(key%d, key%d);%n", i - 1, i - 1, i));
+            }
+        }
+        sb.append("    Function<Integer, Integer> nested = ");
+        for (int d = 0; d < lambdaDepth; d++) {
+            sb.append(String.format("v%d -> context.apply(items.stream().map(i%d -> ", d, d));
+        }
+        sb.append("options.weight()");
+        for (int d = lambdaDepth - 1; d >= 0; d--) {
+            sb.append(String.format(" + v%d).reduce(0, Integer::sum))", d));
+        }
+        sb.append(";\n");
+        sb.append("    results.forEach(r -> r.scale(nested.apply(r.size())));\n");
+        sb.append("    return results;\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+}
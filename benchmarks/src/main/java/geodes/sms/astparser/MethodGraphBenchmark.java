@@ -0,0 +1,177 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import geodes.sms.astparser.graph.CompactGraph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.javaparser.Providers.provider;
+
+/**
+ *  Graph construction of a parsed method, as a whole and stage by stage.
+ *  Before every invocation of a stage benchmark, a fresh Method runs the stages preceding the measured one,
+ *  so each stage is measured on the graph it would see in a real extraction.
+ *  These setups run per invocation: compare the stages of one fixture with each other, and prefer
+ *  the medium and huge fixtures where a stage takes long enough for the timer overhead to be negligible.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodGraphBenchmark {
+    @Param({"small", "medium", "huge"})
+    private String size;
+
+    private MethodDeclaration method;
+
+    private final CompactGraph graph = new CompactGraph();
+
+    private MethodASTParser.Method stages;
+
+    @Setup(Level.Trial)
+    public void parse() {
+        method = new JavaParser(new ParserConfiguration())
+                .parse(ParseStart.METHOD_DECLARATION, provider(Fixtures.source(size)))
+                .getResult()
+                .orElseThrow();
+    }
+
+    private MethodASTParser.Method prepare(int stagesBefore) {
+        MethodASTParser.Method m = new MethodASTParser.Method(method, graph, false);
+        Runnable[] stages = {
+                m::initMethodParametersNodes, m::initMethodIdentifiersNodes, m::initVarTypeEdges,
+                m::initCallsScopes, m::initVarDependency, m::initCallsArgs, m::initVarAssigns};
+        for (int s = 0; s < stagesBefore; s++) {
+            stages[s].run();
+        }
+        return m;
+    }
+
+    @Benchmark
+    public CompactGraph buildGraph() {
+        return new MethodASTParser.Method(method, graph).getCompactGraph();
+    }
+
+    @Benchmark
+    public CompactGraph buildNetwork() {
+        return graph.load(new MethodASTParser.Method(method).getGraph());
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeParameters {
+        MethodASTParser.Method m;
+
+        @Setup(Level.Invocation)
+        public void setUp(MethodGraphBenchmark b) { m = b.prepare(0); }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeIdentifiers {
+        MethodASTParser.Method m;
+
+        @Setup(Level.Invocation)
+        public void setUp(MethodGraphBenchmark b) { m = b.prepare(1); }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeVarTypes {
+        MethodASTParser.Method m;
+
+        @Setup(Level.Invocation)
+        public void setUp(MethodGraphBenchmark b) { m = b.prepare(2); }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeCallsScopes {
+        MethodASTParser.Method m;
+
+        @Setup(Level.Invocation)
+        public void setUp(MethodGraphBenchmark b) { m = b.prepare(3); }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeVarDependency {
+        MethodASTParser.Method m;
+
+        @Setup(Level.Invocation)
+        public void setUp(MethodGraphBenchmark b) { m = b.prepare(4); }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeCallsArgs {
+        MethodASTParser.Method m;
+
+        @Setup(Level.Invocation)
+        public void setUp(MethodGraphBenchmark b) { m = b.prepare(5); }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeVarAssigns {
+        MethodASTParser.Method m;
+
+        @Setup(Level.Invocation)
+        public void setUp(MethodGraphBenchmark b) { m = b.prepare(6); }
+    }
+
+    @State(Scope.Thread)
+    public static class BeforeUnconnectedNodes {
+        MethodASTParser.Method m;
+
+        @Setup(Level.Invocation)
+        public void setUp(MethodGraphBenchmark b) { m = b.prepare(7); }
+    }
+
+    @Benchmark
+    public CompactGraph initMethodParametersNodes(BeforeParameters s) {
+        s.m.initMethodParametersNodes();
+        return s.m.getCompactGraph();
+    }
+
+    @Benchmark
+    public CompactGraph initMethodIdentifiersNodes(BeforeIdentifiers s) {
+        s.m.initMethodIdentifiersNodes();
+        return s.m.getCompactGraph();
+    }
+
+    @Benchmark
+    public CompactGraph initVarTypeEdges(BeforeVarTypes s) {
+        s.m.initVarTypeEdges();
+        return s.m.getCompactGraph();
+    }
+
+    @Benchmark
+    public CompactGraph initCallsScopes(BeforeCallsScopes s) {
+        s.m.initCallsScopes();
+        return s.m.getCompactGraph();
+    }
+
+    @Benchmark
+    public CompactGraph initVarDependency(BeforeVarDependency s) {
+        s.m.initVarDependency();
+        return s.m.getCompactGraph();
+    }
+
+    @Benchmark
+    public CompactGraph initCallsArgs(BeforeCallsArgs s) {
+        s.m.initCallsArgs();
+        return s.m.getCompactGraph();
+    }
+
+    @Benchmark
+    public CompactGraph initVarAssigns(BeforeVarAssigns s) {
+        s.m.initVarAssigns();
+        return s.m.getCompactGraph();
+    }
+
+    @Benchmark
+    public CompactGraph checkUnconnectedNodes(BeforeUnconnectedNodes s) {
+        s.m.checkUnconnectedNodes();
+        return s.m.getCompactGraph();
+    }
+}
@@ -0,0 +1,46 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.github.javaparser.Providers.provider;
+
+/**
+ *  Parsing of a method source into a MethodDeclaration, with each of the parser profiles of Main.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"small", "medium", "huge"})
+    private String size;
+
+    @Param({"default", "fast"})
+    private String profile;
+
+    private String source;
+
+    private JavaParser parser;
+
+    @Setup
+    public void setUp() {
+        source = Fixtures.source(size);
+        parser = new JavaParser(ParserProfile.valueOf(profile.toUpperCase()).newConfiguration());
+        if (!parse().isSuccessful()) {
+            throw new IllegalStateException("Fixture does not parse: " + size);
+        }
+    }
+
+    @Benchmark
+    public ParseResult<MethodDeclaration> parse() {
+        return parser.parse(ParseStart.METHOD_DECLARATION, provider(source));
+    }
+}
@@ -0,0 +1,57 @@
+package geodes.sms.astparser.graph;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Builds graphs of increasing size through the GraphBuilder API the way MethodASTParser does:
+ *  every identifier is looked up before being inserted, then connected to the previous one.
+ *  With indexed lookups the average time grows linearly with the number of nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBuilderBenchmark {
+    @Param({"100", "1000", "10000"})
+    private int nodeCount;
+
+    private String[] labels;
+
+    private final CompactGraph compactGraph = new CompactGraph();
+
+    @Setup
+    public void setUp() {
+        labels = new String[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            labels[i] = "identifier" + i;
+        }
+    }
+
+    @Benchmark
+    public GraphBuilder buildGraph() {
+        return build(new GraphBuilder("method", "method".hashCode()));
+    }
+
+    @Benchmark
+    public GraphBuilder buildCompactGraph() {
+        return build(new GraphBuilder("method", "method".hashCode(), compactGraph));
+    }
+
+    private GraphBuilder build(GraphBuilder builder) {
+        IdentifierNode previous = builder.getNode("method".hashCode()).orElseThrow();
+        for (String label : labels) {
+            if (!builder.nodeExists(label.hashCode())) {
+                builder.addNode(label.hashCode(), label, NodeTypeEnum.VAR.name());
+            }
+            IdentifierNode node = builder.getNode(label.hashCode()).orElseThrow();
+            builder.addEdge(EdgeTypeEnum.DEPENDS_ON.name(), node, previous);
+            previous = node;
+        }
+        builder.checkUnconnectedNodes();
+        return builder;
+    }
+}
@@ -0,0 +1,31 @@
+public Map<String, List<Integer>> indexWords(List<String> lines, int minLength, boolean ignoreCase) {
+    Map<String, List<Integer>> index = new HashMap<>();
+    int lineNumber = 0;
+    for (String line : lines) {
+        lineNumber++;
+        String normalized = ignoreCase ? line.toLowerCase(Locale.ROOT) : line;
+        StringTokenizer tokenizer = new StringTokenizer(normalized, " \t,.;:!?");
+        while (tokenizer.hasMoreTokens()) {
+            String word = tokenizer.nextToken();
+            if (word.length() < minLength) {
+                continue;
+            }
+            List<Integer> occurrences = index.get(word);
+            if (occurrences == null) {
+                occurrences = new ArrayList<>();
+                index.put(word, occurrences);
+            }
+            if (occurrences.isEmpty() || occurrences.get(occurrences.size() - 1) != lineNumber) {
+                occurrences.add(lineNumber);
+            }
+        }
+    }
+    List<String> rare = index.entrySet().stream()
+            .filter(e -> e.getValue().size() == 1)
+            .map(Map.Entry::getKey)
+            .collect(Collectors.toList());
+    rare.forEach(word -> logger.fine("Rare word: " + word));
+    int total = index.values().stream().mapToInt(List::size).sum();
+    statistics.record(lines.size(), index.size(), total);
+    return Collections.unmodifiableMap(index);
+}
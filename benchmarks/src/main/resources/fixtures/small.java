@@ -0,0 +1,4 @@
+public String getDisplayName(Locale locale) {
+    String name = names.get(locale);
+    return name != null ? name : defaultName;
+}
@@ -0,0 +1,181 @@
+package geodes.sms.astparser;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import geodes.sms.astparser.graph.LabelVocabulary;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ *  Last consistent state of a run, saved periodically so that a run that dies can be resumed instead of
+ *  started over: the input files completed, the input file being read and its number of lines whose graphs
+ *  were handed to the sink, the rows written and the length of every output file once forced to disk.
+ *  Resuming truncates the outputs back to these lengths, skips the completed files and the lines already
+ *  read of the current one, and appends to the outputs from there.
+ *  The label vocabulary, when there is one, is written with every checkpoint so that resumed runs keep its ids,
+ *  alternately into two files next to the outputs: the one the checkpoint on disk refers to is never the one
+ *  being written, so that a run dying between the two writes still resumes with the vocabulary of its
+ *  checkpoint.
+ */
+public class ExtractionCheckpoint {
+    public static final String CHECKPOINT_FILE = "extraction-checkpoint.json";
+
+    private static final String[] VOCABULARY_FILES = {
+            LabelVocabulary.VOCABULARY_FILE + ".checkpoint-0", LabelVocabulary.VOCABULARY_FILE + ".checkpoint-1"};
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private final List<String> completedFiles = new ArrayList<>();
+
+    /**
+     *  Input file being read, null between files.
+     */
+    private String path;
+
+    private long lines;
+
+    private long rows;
+
+    private final Map<String, Long> positions = new LinkedHashMap<>();
+
+    /**
+     *  Name of the file of the vocabulary saved with the checkpoint, null without a vocabulary.
+     */
+    private String vocabularyFile;
+
+    /**
+     *  Rows written before this run, by the runs that saved the checkpoint being resumed.
+     */
+    private transient long firstRow;
+
+    private transient Path outputDir;
+
+    private transient GraphSink sink;
+
+    private transient LabelVocabulary vocabulary;
+
+    private transient long intervalNanos;
+
+    private transient long lastSave;
+
+    private final transient Logger logger = Logger.getLogger(ExtractionCheckpoint.class.getName());
+
+    /**
+     *  Returns the checkpoint of the output directory, or null when it has none.
+     */
+    public static ExtractionCheckpoint load(Path outputDir) throws IOException {
+        Path file = outputDir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, ExtractionCheckpoint.class);
+        }
+    }
+
+    /**
+     *  Saves the checkpoint next to the outputs right away, then every intervalSeconds seconds and on every
+     *  completed file, so that a run dying before its first interval is resumed from the outputs it opened.
+     *  The vocabulary is null when the labels are written as they are.
+     */
+    public void attach(Path outputDir, GraphSink sink, LabelVocabulary vocabulary, long intervalSeconds)
+            throws IOException {
+        this.outputDir = outputDir;
+        this.sink = sink;
+        this.vocabulary = vocabulary;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+        this.firstRow = rows;
+        save(lines);
+    }
+
+    public boolean isCompleted(Path file) {
+        return completedFiles.contains(file.toAbsolutePath().toString());
+    }
+
+    /**
+     *  Number of lines of the given input file already read, 0 unless it is the file being read.
+     */
+    public long getLines(Path file) {
+        return file.toAbsolutePath().toString().equals(path) ? lines : 0;
+    }
+
+    public String getPath() { return path; }
+
+    public long getRows() { return rows; }
+
+    public Map<String, Long> getPositions() { return positions; }
+
+    /**
+     *  File of the output directory holding the label vocabulary of the checkpoint, null when it has none.
+     */
+    public Path getVocabularyFile(Path outputDir) {
+        return vocabularyFile != null ? outputDir.resolve(vocabularyFile) : null;
+    }
+
+    public void startFile(Path file) {
+        String started = file.toAbsolutePath().toString();
+        if (!started.equals(path)) {
+            path = started;
+            lines = 0;
+        }
+    }
+
+    /**
+     *  Records that the graphs of the first given lines of the current file were handed to the sink, and saves
+     *  the checkpoint when the interval has elapsed since the last one.
+     */
+    public void progress(long linesRead) {
+        if (intervalNanos <= 0 || System.nanoTime() - lastSave < intervalNanos) {
+            return;
+        }
+        try {
+            save(linesRead);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void completeFile() throws IOException {
+        completedFiles.add(path);
+        path = null;
+        save(0);
+    }
+
+    /**
+     *  Forces the outputs to disk and writes the vocabulary, then records their lengths through a temporary file
+     *  moved in place, so that the checkpoint never refers to bytes that are not on disk.
+     */
+    private void save(long linesRead) throws IOException {
+        sink.sync();
+        if (vocabulary != null) {
+            String next = VOCABULARY_FILES[0].equals(vocabularyFile) ? VOCABULARY_FILES[1] : VOCABULARY_FILES[0];
+            vocabulary.write(outputDir.resolve(next));
+            vocabularyFile = next;
+        }
+        lines = linesRead;
+        rows = firstRow + sink.getRows();
+        positions.clear();
+        positions.putAll(sink.getPositions());
+        Path file = outputDir.resolve(CHECKPOINT_FILE);
+        Path tmp = outputDir.resolve(CHECKPOINT_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(this, writer);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSave = System.nanoTime();
+        logger.fine(String.format("Checkpoint at line %s of %s, %s rows", lines, path, rows));
+    }
+}
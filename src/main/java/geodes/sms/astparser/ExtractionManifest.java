@@ -0,0 +1,163 @@
+package geodes.sms.astparser;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Record of the input files processed by the incremental runs that wrote an output directory.
+ *  Every shard maps an input file, identified by its size, modification time and content hash,
+ *  the hash being computed from the bytes the extraction read rather than by a separate pass over the file,
+ *  to the rows it produced and to the length of every output file before and after its rows,
+ *  so that the outputs can be truncated back to the start of any shard.
+ */
+public class ExtractionManifest {
+    public static final String MANIFEST_FILE = "extraction-manifest.json";
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private final List<Shard> shards = new ArrayList<>();
+
+    public static class Shard {
+        String path;
+
+        long size;
+
+        long lastModified;
+
+        /**
+         *  Null when the file could not be read to its end, the shard then being stale once the file is touched.
+         */
+        String sha256;
+
+        long firstRow;
+
+        long rows;
+
+        Map<String, Long> startPositions = new LinkedHashMap<>();
+
+        Map<String, Long> endPositions = new LinkedHashMap<>();
+
+        public String getPath() { return path; }
+
+        public long getFirstRow() { return firstRow; }
+
+        public long getRows() { return rows; }
+
+        public Map<String, Long> getStartPositions() { return startPositions; }
+
+        public Map<String, Long> getEndPositions() { return endPositions; }
+
+        /**
+         *  Whether the input file still has the content this shard was extracted from.
+         *  The content hash is only computed when the size or the modification time differ.
+         */
+        boolean matches(Path file) throws IOException {
+            if (!Files.exists(file) || Files.size(file) != size) {
+                return false;
+            }
+            if (Files.getLastModifiedTime(file).toMillis() == lastModified) {
+                return true;
+            }
+            if (sha256 != null && sha256.equals(hash(file))) {
+                lastModified = Files.getLastModifiedTime(file).toMillis();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public static ExtractionManifest load(Path outputDir) throws IOException {
+        Path file = outputDir.resolve(MANIFEST_FILE);
+        if (!Files.exists(file)) {
+            return new ExtractionManifest();
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return gson.fromJson(reader, ExtractionManifest.class);
+        }
+    }
+
+    /**
+     *  Writes the manifest next to the outputs, through a temporary file moved in place.
+     */
+    public void save(Path outputDir) throws IOException {
+        Path file = outputDir.resolve(MANIFEST_FILE);
+        Path tmp = outputDir.resolve(MANIFEST_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(this, writer);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    public Shard findShard(Path file) {
+        String path = file.toAbsolutePath().normalize().toString();
+        return shards.stream().filter(s -> s.path.equals(path)).findFirst().orElse(null);
+    }
+
+    /**
+     *  Drops the given shard and every shard recorded after it.
+     */
+    public void truncate(Shard first) {
+        shards.subList(shards.indexOf(first), shards.size()).clear();
+    }
+
+    /**
+     *  Starts the shard of an input file about to be extracted. Its content hash is given on completion.
+     */
+    public Shard addShard(Path file, long firstRow, Map<String, Long> startPositions) throws IOException {
+        Shard shard = new Shard();
+        shard.path = file.toAbsolutePath().normalize().toString();
+        shard.size = Files.size(file);
+        shard.lastModified = Files.getLastModifiedTime(file).toMillis();
+        shard.firstRow = firstRow;
+        shard.startPositions.putAll(startPositions);
+        shards.add(shard);
+        return shard;
+    }
+
+    /**
+     *  Completes a shard with the SHA-256 of the bytes of its input file, or null when they were not all read.
+     */
+    public void completeShard(Shard shard, long rows, Map<String, Long> endPositions, String sha256) {
+        shard.sha256 = sha256;
+        shard.rows = rows;
+        shard.endPositions.putAll(endPositions);
+    }
+
+    static String hash(Path file) throws IOException {
+        return MoreFiles.asByteSource(file).hash(Hashing.sha256()).toString();
+    }
+
+    /**
+     *  Truncates the files of the output directory to the given lengths, e.g., the start positions of a shard.
+     */
+    public static void truncateOutputs(Path outputDir, Map<String, Long> lengths) throws IOException {
+        for (Map.Entry<String, Long> length : lengths.entrySet()) {
+            Path file = outputDir.resolve(length.getKey());
+            if (Files.exists(file)) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(length.getValue());
+                }
+            }
+        }
+    }
+}
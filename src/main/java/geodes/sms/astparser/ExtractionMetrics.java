@@ -0,0 +1,359 @@
+package geodes.sms.astparser;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ *  Thread-safe metrics of an extraction run: counters, latency histograms of every stage a method goes
+ *  through, failures by stage and exception type, and the distribution of the sizes of the built graphs.
+ *  They can be logged periodically while the run goes on, and are written as a JSON summary at its end.
+ */
+public class ExtractionMetrics implements Closeable {
+    public static final String SUMMARY_FILE = "extraction-metrics.json";
+
+    public static final String DECODE = "decode";
+
+    public static final String PARSE = "parse";
+
+    public static final String EXPORT = "export";
+
+    public static final String METHODS_READ = "methodsRead";
+
+    public static final String CACHE_HITS = "cacheHits";
+
+    public static final String GRAPHS_BUILT = "graphsBuilt";
+
+    public static final String GRAPHS_WRITTEN = "graphsWritten";
+
+    public static final String DROPPED_MAX_NODES = "droppedMaxNodes";
+
+    public static final String DROPPED_MAX_EDGES = "droppedMaxEdges";
+
+    public static final String DROPPED_ESTIMATE = "droppedEstimate";
+
+    public static final String DUPLICATE_GRAPHS = "duplicateGraphs";
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private final long start = System.nanoTime();
+
+    /**
+     *  Counters, stage histograms and failures by name, with their names in the order they were first used
+     *  so that reports list them in a stable order.
+     */
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final Queue<String> counterNames = new ConcurrentLinkedQueue<>();
+
+    private final Map<String, Histogram> stages = new ConcurrentHashMap<>();
+
+    private final Queue<String> stageNames = new ConcurrentLinkedQueue<>();
+
+    private final Map<String, Map<String, LongAdder>> failures = new ConcurrentHashMap<>();
+
+    private final Histogram nodeCounts = new Histogram();
+
+    private final Histogram edgeCounts = new Histogram();
+
+    private final Queue<Map<String, Object>> files = new ConcurrentLinkedQueue<>();
+
+    /**
+     *  Additional sections of the summary, computed when it is written.
+     */
+    private final Map<String, Supplier<Object>> sections = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reporter;
+
+    private long lastReportTime = start;
+
+    private long lastReportMethods = 0;
+
+    private final Logger logger = Logger.getLogger(ExtractionMetrics.class.getName());
+
+    public ExtractionMetrics() {
+        for (String counter : new String[] {METHODS_READ, CACHE_HITS, GRAPHS_BUILT, GRAPHS_WRITTEN,
+                DROPPED_MAX_NODES, DROPPED_MAX_EDGES, DROPPED_ESTIMATE}) {
+            add(counter, 0);
+        }
+    }
+
+    /**
+     *  Histogram of non-negative values with 8 linear sub-buckets per power of two, i.e., quantiles are
+     *  reported with a relative error below 12.5%, in a fixed array of buckets updated without locking.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1));
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder sum = new LongAdder();
+
+        private volatile long max = 0;
+
+        void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            if (value > max) {
+                synchronized (this) {
+                    max = Math.max(max, value);
+                }
+            }
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS;
+            return SUB_BUCKETS * (shift + 1) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        /**
+         *  Largest value that falls in the given bucket.
+         */
+        private static long bucketLimit(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        long getCount() { return count.sum(); }
+
+        long getSum() { return sum.sum(); }
+
+        long getMax() { return max; }
+
+        double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        long getQuantile(double quantile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int b = 0; b < buckets.length(); b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) {
+                    return Math.min(bucketLimit(b), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         *  Summary of the histogram, with every value divided by the given unit.
+         */
+        Map<String, Object> summary(double unit) {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", getCount());
+            summary.put("mean", round(getMean() / unit));
+            summary.put("p50", round(getQuantile(0.5) / unit));
+            summary.put("p90", round(getQuantile(0.9) / unit));
+            summary.put("p99", round(getQuantile(0.99) / unit));
+            summary.put("max", round(getMax() / unit));
+            return summary;
+        }
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long value) {
+        LongAdder adder = counters.get(counter);
+        if (adder == null) {
+            adder = counters.computeIfAbsent(counter, c -> {
+                counterNames.add(c);
+                return new LongAdder();
+            });
+        }
+        adder.add(value);
+    }
+
+    public long getCount(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     *  Records the time spent by a method in a stage, measured from the given System.nanoTime value.
+     *  Returns the current System.nanoTime value, so that consecutive stages can be chained.
+     */
+    public long stage(String stage, long startNanos) {
+        long now = System.nanoTime();
+        Histogram histogram = stages.get(stage);
+        if (histogram == null) {
+            histogram = stages.computeIfAbsent(stage, s -> {
+                stageNames.add(s);
+                return new Histogram();
+            });
+        }
+        histogram.record(now - startNanos);
+        return now;
+    }
+
+    public void failure(String stage, Throwable cause) {
+        failure(stage, cause.getClass().getSimpleName());
+    }
+
+    public void failure(String stage, String type) {
+        failures.computeIfAbsent(stage, s -> new ConcurrentHashMap<>())
+                .computeIfAbsent(type, t -> new LongAdder())
+                .increment();
+    }
+
+    public long getFailureCount() {
+        return failures.values().stream()
+                .flatMap(types -> types.values().stream())
+                .mapToLong(LongAdder::sum)
+                .sum();
+    }
+
+    public void graphSize(int nodes, int edges) {
+        nodeCounts.record(nodes);
+        edgeCounts.record(edges);
+    }
+
+    /**
+     *  Records the methods read from and written for an input file, and the time it took to extract it.
+     */
+    public void fileCompleted(Path file, long methodsRead, long graphsWritten, long nanos) {
+        double seconds = nanos / 1e9;
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("path", file.toString());
+        entry.put("methodsRead", methodsRead);
+        entry.put("graphsWritten", graphsWritten);
+        entry.put("seconds", round(seconds));
+        entry.put("methodsPerSecond", round(seconds > 0 ? methodsRead / seconds : 0));
+        files.add(entry);
+    }
+
+    /**
+     *  Adds a section to the JSON summary, computed when the summary is written.
+     */
+    public void addSection(String name, Supplier<Object> section) {
+        sections.put(name, section);
+    }
+
+    /**
+     *  Logs a report every given number of seconds, until the metrics are closed.
+     */
+    public void startReporting(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("metrics-reporter")
+                .setDaemon(true)
+                .build());
+        reporter.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     *  Logs the counters, the methods per second since the previous report and the median and 99th
+     *  percentile latencies of the stages.
+     */
+    public synchronized void report() {
+        long now = System.nanoTime();
+        long methods = getCount(METHODS_READ);
+        double seconds = (now - lastReportTime) / 1e9;
+        double rate = seconds > 0 ? (methods - lastReportMethods) / seconds : 0;
+        lastReportTime = now;
+        lastReportMethods = methods;
+
+        StringBuilder sb = new StringBuilder("Metrics:");
+        for (String counter : counterNames) {
+            sb.append(String.format(" %s=%s", counter, getCount(counter)));
+        }
+        sb.append(String.format(" failures=%s methods/s=%.1f", getFailureCount(), rate));
+        for (String stage : stageNames) {
+            Histogram histogram = stages.get(stage);
+            sb.append(String.format(" %s[p50=%.1fus p99=%.1fus]",
+                    stage, histogram.getQuantile(0.5) / 1e3, histogram.getQuantile(0.99) / 1e3));
+        }
+        logger.info(sb.toString());
+    }
+
+    public Map<String, Object> getSummary() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("elapsedSeconds", round(seconds));
+        for (String counter : counterNames) {
+            summary.put(counter, getCount(counter));
+        }
+        summary.put("methodsPerSecond", round(seconds > 0 ? getCount(METHODS_READ) / seconds : 0));
+
+        Map<String, Object> failureSummary = new LinkedHashMap<>();
+        failures.forEach((stage, types) -> {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            types.forEach((type, count) -> counts.put(type, count.sum()));
+            failureSummary.put(stage, counts);
+        });
+        summary.put("failures", failureSummary);
+
+        Map<String, Object> stageSummary = new LinkedHashMap<>();
+        for (String stage : stageNames) {
+            Map<String, Object> latencies = stages.get(stage).summary(1e3);
+            latencies.put("totalMillis", round(stages.get(stage).getSum() / 1e6));
+            stageSummary.put(stage, latencies);
+        }
+        summary.put("stageMicros", stageSummary);
+        summary.put("nodeCounts", nodeCounts.summary(1));
+        summary.put("edgeCounts", edgeCounts.summary(1));
+        sections.forEach((name, section) -> summary.put(name, section.get()));
+        summary.put("files", new ArrayList<>(files));
+        return summary;
+    }
+
+    public void writeSummary(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            gson.toJson(getSummary(), writer);
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    @Override
+    public void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+}
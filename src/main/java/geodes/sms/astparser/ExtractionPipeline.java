@@ -0,0 +1,596 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.TokenRange;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.utils.Pair;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.GraphBudget;
+import geodes.sms.astparser.graph.GraphBudgetExceededException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import static com.github.javaparser.Providers.provider;
+
+/**
+ *  Parses JSONL method records and builds their graphs on a pool of workers.
+ *  Each worker owns its JavaParser instance, since the static parser configuration cannot be shared
+ *  between threads. Results are handed to the sink in input order, on the calling thread, so that
+ *  every output file stays aligned row-for-row.
+ *  Only a bounded number of records are in flight at once, so a record is read, graphed, written and
+ *  dropped before the reader gets far ahead of the writer, and the heap does not grow with the input size.
+ *  Java source files can be extracted instead of JSONL records: every file is parsed once, by one worker,
+ *  and gives the graphs of all its methods and constructors, which share the imports and fields of the file.
+ *  Large JSONL files can be read from a MappedJsonlReader instead, whose blocks of lines are decoded and
+ *  extracted by the workers, so that the reader thread only cuts the file.
+ */
+public class ExtractionPipeline implements Closeable {
+    private static final String RESOLVED_VARIANT = "resolved";
+
+    private static final String PATH = "path";
+
+    private final ExecutorService workers;
+
+    private final ThreadLocal<JavaParser> parsers;
+
+    private final ThreadLocal<JsonFieldExtractor> decoders =
+            ThreadLocal.withInitial(() -> new JsonFieldExtractor(JsonFieldExtractor.ORIGINAL_STRING));
+
+    private final ThreadLocal<CharsetDecoder> lineDecoders =
+            ThreadLocal.withInitial(StandardCharsets.UTF_8::newDecoder);
+
+    private final int maxInFlight;
+
+    /**
+     *  Number of blocks of a mapped file in flight: enough for every worker to start a block while the previous
+     *  ones are handed to the sink.
+     */
+    private final int maxBlocksInFlight;
+
+    /**
+     *  Graphs already handed to the sink, reused by the workers for the next methods.
+     */
+    private final Queue<CompactGraph> spareGraphs = new ConcurrentLinkedQueue<>();
+
+    /**
+     *  Optional cache of the graphs of already extracted method sources, null when disabled.
+     */
+    private final GraphCache cache;
+
+    private final ExtractionMetrics metrics;
+
+    /**
+     *  Type resolver of every worker, null when the types and calls are labelled with their text.
+     */
+    private final ThreadLocal<TypeResolver> resolvers;
+
+    /**
+     *  Size limits of the graphs: methods are skipped before parsing when their source looks too large,
+     *  and abandoned while building their graph when it reaches the node or edge budget.
+     */
+    private final GraphBudget budget;
+
+    /**
+     *  Name of the parser configuration of the workers, which keys their cached graphs apart from the ones of
+     *  other configurations, null for the default configuration.
+     */
+    private String cacheVariant;
+
+    /**
+     *  Optional limits of the time and of the AST size of every method, null when disabled.
+     */
+    private MethodWatchdog watchdog;
+
+    /**
+     *  Optional listener of the number of lines of the current input whose graphs were handed to the sink,
+     *  called on the calling thread after every line or block, null when disabled.
+     */
+    private LongConsumer progress;
+
+    public ExtractionPipeline(int threads, int maxInFlight, Supplier<ParserConfiguration> configuration) {
+        this(threads, maxInFlight, configuration, null, new ExtractionMetrics(), null, GraphBudget.UNLIMITED);
+    }
+
+    public ExtractionPipeline(int threads, int maxInFlight, Supplier<ParserConfiguration> configuration,
+                              GraphCache cache, ExtractionMetrics metrics, Supplier<TypeResolver> resolver,
+                              GraphBudget budget) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxBlocksInFlight = 2 * Math.max(1, threads);
+        this.cache = cache;
+        this.metrics = metrics;
+        this.budget = budget;
+        this.resolvers = resolver != null ? ThreadLocal.withInitial(resolver) : null;
+        if (threads > 1) {
+            workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                    .setNameFormat("extraction-worker-%d")
+                    .setDaemon(true)
+                    .build());
+        } else {
+            workers = MoreExecutors.newDirectExecutorService();
+        }
+        parsers = ThreadLocal.withInitial(() -> new JavaParser(configuration.get()));
+    }
+
+    /**
+     *  Names the parser configuration given to the constructor, e.g., a ParserProfile other than the default
+     *  one, so that the graphs it builds are not mixed with the graphs of other configurations in the cache.
+     */
+    public void setCacheVariant(String cacheVariant) {
+        this.cacheVariant = cacheVariant;
+    }
+
+    /**
+     *  Limits the time and the AST size of every method, see MethodWatchdog.
+     */
+    public void setWatchdog(MethodWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     *  Reports the lines handed to the sink by every following extract or extractMapped call, e.g., to
+     *  checkpoint the run; null to stop reporting.
+     */
+    public void setProgress(LongConsumer progress) {
+        this.progress = progress;
+    }
+
+    public int extract(Iterator<String> lines, Consumer<Pair<String, CompactGraph>> sink) {
+        Deque<Future<Pair<String, CompactGraph>>> inFlight = new ArrayDeque<>(maxInFlight);
+        int read = 0;
+        int drained = 0;
+        while (lines.hasNext()) {
+            String line = lines.next();
+            inFlight.add(workers.submit(() -> buildGraph(line)));
+            read++;
+            if (inFlight.size() >= maxInFlight) {
+                drain(inFlight.poll(), sink);
+                reportProgress(++drained);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            drain(inFlight.poll(), sink);
+            reportProgress(++drained);
+        }
+        return read;
+    }
+
+    private void reportProgress(long drained) {
+        if (progress != null) {
+            progress.accept(drained);
+        }
+    }
+
+    /**
+     *  Extracts the methods and constructors of Java source files, in file order then declaration order.
+     *  Each graph is handed to the sink with a JSONL record giving its file, its name and its source.
+     *  The graphs are not cached: they depend on the file of a method, not only on its source.
+     *  Returns the number of files read.
+     */
+    public int extractFiles(Iterator<Path> files, Consumer<Pair<String, CompactGraph>> sink) {
+        Deque<Future<List<Pair<String, CompactGraph>>>> inFlight = new ArrayDeque<>(maxInFlight);
+        int read = 0;
+        while (files.hasNext()) {
+            Path file = files.next();
+            inFlight.add(workers.submit(() -> buildFileGraphs(file)));
+            read++;
+            if (inFlight.size() >= maxInFlight) {
+                drainFile(inFlight.poll(), sink);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            drainFile(inFlight.poll(), sink);
+        }
+        return read;
+    }
+
+    /**
+     *  Extracts the JSONL records of the blocks of a mapped file, handing their graphs to the sink in line order.
+     *  A line that is not valid UTF-8 stops the extraction after the graphs of the lines before it, as it does
+     *  when reading the file through MappedJsonlReader.lines. Returns the number of lines read.
+     */
+    public long extractMapped(MappedJsonlReader reader, Consumer<Pair<String, CompactGraph>> sink)
+            throws IOException {
+        Deque<Future<BlockGraphs>> inFlight = new ArrayDeque<>(maxBlocksInFlight);
+        long read = 0;
+        MappedJsonlReader.Block block;
+        while ((block = reader.nextBlock()) != null) {
+            MappedJsonlReader.Block lines = block;
+            inFlight.add(workers.submit(() -> buildBlockGraphs(lines)));
+            if (inFlight.size() >= maxBlocksInFlight) {
+                read += drainBlock(inFlight.poll(), sink);
+                reportProgress(read);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            read += drainBlock(inFlight.poll(), sink);
+            reportProgress(read);
+        }
+        return read;
+    }
+
+    private long drainBlock(Future<BlockGraphs> result, Consumer<Pair<String, CompactGraph>> sink) {
+        BlockGraphs block = await(result);
+        for (Pair<String, CompactGraph> graph : block.graphs) {
+            sink.accept(graph);
+            spareGraphs.offer(graph.b);
+        }
+        if (block.failure != null) {
+            throw block.failure;
+        }
+        return block.lines;
+    }
+
+    private void drainFile(Future<List<Pair<String, CompactGraph>>> result,
+                           Consumer<Pair<String, CompactGraph>> sink) {
+        for (Pair<String, CompactGraph> graph : await(result)) {
+            sink.accept(graph);
+            spareGraphs.offer(graph.b);
+        }
+    }
+
+    private void drain(Future<Pair<String, CompactGraph>> result, Consumer<Pair<String, CompactGraph>> sink) {
+        Pair<String, CompactGraph> graph = await(result);
+        if (graph != null) {
+            sink.accept(graph);
+            spareGraphs.offer(graph.b);
+        }
+    }
+
+    /**
+     *  Builds the graph of a single JSONL method record on the calling thread, or returns null when the record
+     *  gives no graph. The graph can be handed back with release once it is no longer used.
+     */
+    public CompactGraph extractGraph(String line) {
+        Pair<String, CompactGraph> graph = buildGraph(line);
+        return graph != null ? graph.b : null;
+    }
+
+    /**
+     *  Gives back a graph returned by extractGraph, to be reused for the next methods.
+     */
+    public void release(CompactGraph graph) {
+        spareGraphs.offer(graph);
+    }
+
+    private Pair<String, CompactGraph> buildGraph(String line) {
+        metrics.increment(ExtractionMetrics.METHODS_READ);
+        String source = decodeSource(line);
+        if (source == null) {
+            return null;
+        }
+        if (budget.getMaxIdentifiers() > 0 && budget.exceedsEstimate(
+                SourceSizeEstimator.distinctIdentifiers(source, budget.getMaxIdentifiers()))) {
+            metrics.increment(ExtractionMetrics.DROPPED_ESTIMATE);
+            return null;
+        }
+        HashCode key = null;
+        if (cache != null) {
+            // resolved and textual labels, and parser configurations, may give different graphs for a source
+            String variant = resolvers == null ? cacheVariant
+                    : cacheVariant != null ? cacheVariant + "-" + RESOLVED_VARIANT : RESOLVED_VARIANT;
+            key = variant != null ? GraphCache.key(variant, source) : GraphCache.key(source);
+            Optional<CompactGraph> cached = cache.get(key);
+            if (cached != null) {
+                metrics.increment(ExtractionMetrics.CACHE_HITS);
+                return cached.map(g -> new Pair<>(line, g.copyTo(spareGraph()))).orElse(null);
+            }
+        }
+        MethodWatchdog.Task deadline = watchdog != null ? watchdog.start() : null;
+        MethodASTParser.Method graphMethod = null;
+        try {
+            MethodDeclaration method = parseMethod(source, deadline);
+            if (method == null) {
+                if (cache != null) {
+                    cache.put(key, null);
+                }
+                return null;
+            }
+            if (watchdog != null && watchdog.exceedsAstNodes(method)) {
+                watchdog.quarantine(line, MethodWatchdog.QUARANTINED_AST_NODES);
+                return null;
+            }
+            graphMethod = new MethodASTParser.Method(
+                    method, spareGraph(), resolvers != null ? resolvers.get() : null, false);
+            graphMethod.setBudget(budget);
+            graphMethod.setDeadline(deadline);
+            graphMethod.build(metrics);
+        } catch (GraphBudgetExceededException e) {
+            // not cached: the graph may fit the budget of another run
+            spareGraphs.offer(graphMethod.getCompactGraph());
+            metrics.increment(e.getBudget().equals(GraphBudgetExceededException.NODES)
+                    ? ExtractionMetrics.DROPPED_MAX_NODES : ExtractionMetrics.DROPPED_MAX_EDGES);
+            return null;
+        } catch (MethodTimeoutException e) {
+            if (graphMethod != null) {
+                spareGraphs.offer(graphMethod.getCompactGraph());
+            }
+            watchdog.quarantine(line, MethodWatchdog.QUARANTINED_TIMEOUT);
+            return null;
+        } catch (StackOverflowError e) {
+            // deeply nested expressions overflow the recursive visitors of the parser
+            if (watchdog == null) {
+                throw e;
+            }
+            if (graphMethod != null) {
+                spareGraphs.offer(graphMethod.getCompactGraph());
+            }
+            watchdog.quarantine(line, MethodWatchdog.QUARANTINED_STACK_OVERFLOW);
+            return null;
+        } finally {
+            if (deadline != null) {
+                deadline.close();
+            }
+        }
+        CompactGraph graph = graphMethod.getCompactGraph();
+        metrics.increment(ExtractionMetrics.GRAPHS_BUILT);
+        if (cache != null) {
+            cache.put(key, graph);
+        }
+        return new Pair<>(line, graph);
+    }
+
+    private BlockGraphs buildBlockGraphs(MappedJsonlReader.Block block) {
+        BlockGraphs graphs = new BlockGraphs();
+        CharsetDecoder decoder = lineDecoders.get();
+        try {
+            String line;
+            while ((line = block.nextLine(decoder)) != null) {
+                graphs.lines++;
+                Pair<String, CompactGraph> graph = buildGraph(line);
+                if (graph != null) {
+                    graphs.graphs.add(graph);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            graphs.failure = e;
+        }
+        return graphs;
+    }
+
+    private List<Pair<String, CompactGraph>> buildFileGraphs(Path file) {
+        List<Pair<String, CompactGraph>> graphs = new ArrayList<>();
+        // the file is parsed under the limit of one method, then every method under its own
+        MethodWatchdog.Task parseDeadline = watchdog != null ? watchdog.start() : null;
+        CompilationUnit cu;
+        try {
+            cu = parseFile(file, parseDeadline);
+        } catch (MethodTimeoutException e) {
+            watchdog.quarantine(fileRecord(file), MethodWatchdog.QUARANTINED_TIMEOUT);
+            return graphs;
+        } catch (StackOverflowError e) {
+            if (watchdog == null) {
+                throw e;
+            }
+            watchdog.quarantine(fileRecord(file), MethodWatchdog.QUARANTINED_STACK_OVERFLOW);
+            return graphs;
+        } finally {
+            if (parseDeadline != null) {
+                parseDeadline.close();
+            }
+        }
+        if (cu == null) {
+            return graphs;
+        }
+        FileContext context = new FileContext(cu);
+        // the callables of anonymous and local classes are part of the graph of the method declaring them, and
+        // their fields are not the ones of a type of the file
+        List<CallableDeclaration<?>> callables = new ArrayList<>();
+        cu.findAll(CallableDeclaration.class, ExtractionPipeline::isTypeMember).forEach(callables::add);
+        for (CallableDeclaration<?> callable : callables) {
+            metrics.increment(ExtractionMetrics.METHODS_READ);
+            String source = callable.getTokenRange().map(TokenRange::toString).orElseGet(callable::toString);
+            if (budget.getMaxIdentifiers() > 0 && budget.exceedsEstimate(
+                    SourceSizeEstimator.distinctIdentifiers(source, budget.getMaxIdentifiers()))) {
+                metrics.increment(ExtractionMetrics.DROPPED_ESTIMATE);
+                continue;
+            }
+            String record = methodRecord(file, callable, source);
+            if (watchdog != null && watchdog.exceedsAstNodes(callable)) {
+                watchdog.quarantine(record, MethodWatchdog.QUARANTINED_AST_NODES);
+                continue;
+            }
+            MethodASTParser.Method graphMethod = new MethodASTParser.Method(callable, spareGraph(), null, false);
+            graphMethod.setBudget(budget);
+            graphMethod.setFileContext(context);
+            MethodWatchdog.Task deadline = watchdog != null ? watchdog.start() : null;
+            graphMethod.setDeadline(deadline);
+            try {
+                graphMethod.build(metrics);
+            } catch (GraphBudgetExceededException e) {
+                spareGraphs.offer(graphMethod.getCompactGraph());
+                metrics.increment(e.getBudget().equals(GraphBudgetExceededException.NODES)
+                        ? ExtractionMetrics.DROPPED_MAX_NODES : ExtractionMetrics.DROPPED_MAX_EDGES);
+                continue;
+            } catch (MethodTimeoutException e) {
+                spareGraphs.offer(graphMethod.getCompactGraph());
+                watchdog.quarantine(record, MethodWatchdog.QUARANTINED_TIMEOUT);
+                continue;
+            } catch (StackOverflowError e) {
+                // deeply nested expressions overflow the recursive visitors of the graph builder
+                if (watchdog == null) {
+                    throw e;
+                }
+                spareGraphs.offer(graphMethod.getCompactGraph());
+                watchdog.quarantine(record, MethodWatchdog.QUARANTINED_STACK_OVERFLOW);
+                continue;
+            } finally {
+                if (deadline != null) {
+                    deadline.close();
+                }
+            }
+            metrics.increment(ExtractionMetrics.GRAPHS_BUILT);
+            graphs.add(new Pair<>(record, graphMethod.getCompactGraph()));
+        }
+        return graphs;
+    }
+
+    /**
+     *  Whether a callable is a member of a top-level type or of a type nested in it, rather than of an anonymous
+     *  class, a local class or an enum constant body.
+     */
+    private static boolean isTypeMember(CallableDeclaration<?> callable) {
+        Optional<Node> parent = callable.getParentNode();
+        while (parent.isPresent() && parent.get() instanceof TypeDeclaration) {
+            parent = parent.get().getParentNode();
+        }
+        return parent.isPresent() && parent.get() instanceof CompilationUnit
+                && callable.getParentNode().get() != parent.get();
+    }
+
+    /**
+     *  JSONL record of a method of a source file, with the fields of the input records that describe it.
+     */
+    private static String methodRecord(Path file, CallableDeclaration<?> callable, String source) {
+        String type = callable.findAncestor(TypeDeclaration.class).map(t -> t.getNameAsString() + ".").orElse("");
+        JsonObject record = new JsonObject();
+        record.addProperty(PATH, file.toString());
+        record.addProperty(JsonFieldExtractor.FUNC_NAME, type + callable.getNameAsString());
+        record.addProperty(JsonFieldExtractor.ORIGINAL_STRING, source);
+        return record.toString();
+    }
+
+    /**
+     *  JSONL record of a source file that could not be parsed within the limits.
+     */
+    private static String fileRecord(Path file) {
+        JsonObject record = new JsonObject();
+        record.addProperty(PATH, file.toString());
+        return record.toString();
+    }
+
+    private CompactGraph spareGraph() {
+        CompactGraph graph = spareGraphs.poll();
+        return graph != null ? graph : new CompactGraph();
+    }
+
+    private String decodeSource(String line) {
+        long start = System.nanoTime();
+        String[] fields = decoders.get().extract(line);
+        metrics.stage(ExtractionMetrics.DECODE, start);
+        if (fields == null) {
+            metrics.failure(ExtractionMetrics.DECODE, "MalformedRecord");
+        } else if (fields[0] == null) {
+            metrics.failure(ExtractionMetrics.DECODE, "MissingOriginalString");
+        }
+        return fields != null ? fields[0] : null;
+    }
+
+    /**
+     *  Parses a method source, checking the deadline while the parser reads it and once it is parsed.
+     */
+    private MethodDeclaration parseMethod(String source, MethodWatchdog.Task deadline) {
+        long start = System.nanoTime();
+        try {
+            ParseResult<MethodDeclaration> result = parsers.get().parse(ParseStart.METHOD_DECLARATION,
+                    deadline != null ? provider(deadline.guard(new StringReader(source))) : provider(source));
+            if (deadline != null) {
+                // a timeout thrown while the parser reads is reported as a parse problem
+                deadline.checkDeadline();
+            }
+            if (result.isSuccessful()) {
+                return result.getResult().orElse(null);
+            }
+            metrics.failure(ExtractionMetrics.PARSE, "ParseProblem");
+        } catch (MethodTimeoutException e) {
+            throw e;
+        } catch (Exception e) {
+            metrics.failure(ExtractionMetrics.PARSE, e);
+        } finally {
+            metrics.stage(ExtractionMetrics.PARSE, start);
+        }
+        return null;
+    }
+
+    /**
+     *  Parses a source file, checking the deadline while the parser reads it and once it is parsed.
+     */
+    private CompilationUnit parseFile(Path file, MethodWatchdog.Task deadline) {
+        long start = System.nanoTime();
+        try {
+            ParseResult<CompilationUnit> result = parsers.get().parse(ParseStart.COMPILATION_UNIT,
+                    deadline != null ? provider(deadline.guard(
+                            new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)))
+                            : provider(file, StandardCharsets.UTF_8));
+            if (deadline != null) {
+                // a timeout thrown while the parser reads is reported as a parse problem
+                deadline.checkDeadline();
+            }
+            if (result.isSuccessful()) {
+                return result.getResult().orElse(null);
+            }
+            metrics.failure(ExtractionMetrics.PARSE, "ParseProblem");
+        } catch (MethodTimeoutException e) {
+            throw e;
+        } catch (Exception e) {
+            metrics.failure(ExtractionMetrics.PARSE, e);
+        } finally {
+            metrics.stage(ExtractionMetrics.PARSE, start);
+        }
+        return null;
+    }
+
+    private static <T> T await(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a method graph", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new IllegalStateException(ee.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    /**
+     *  Graphs of the lines of a block of a mapped file, in line order, with the number of lines read and the
+     *  decoding failure that stopped the block, if any.
+     */
+    private static class BlockGraphs {
+        private final List<Pair<String, CompactGraph>> graphs = new ArrayList<>();
+
+        private long lines;
+
+        private UncheckedIOException failure;
+    }
+}
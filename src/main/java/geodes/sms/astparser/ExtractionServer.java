@@ -0,0 +1,263 @@
+package geodes.sms.astparser;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.stream.JsonWriter;
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.EdgeTypeEnum;
+import geodes.sms.astparser.graph.NodeTypeEnum;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ *  Long-running extraction service, which keeps a warm pipeline to build the graphs of methods sent one at a
+ *  time, over stdin/stdout or over local socket connections.
+ *  The protocol is line-delimited: every request line is a JSONL method record, as in the input files, and
+ *  gets exactly one response line, in request order on its connection. A response is a JSON object holding
+ *  either the graph, as its nodes and edges, or as the Base64 encoding of CompactGraph.writeTo in binary mode,
+ *  or an error when the record gives no graph.
+ *  Requests are built concurrently by a pool of workers shared by all the connections, with a bounded number
+ *  of requests in flight per connection. The latency of every request, from its reading to the building of its
+ *  response, is recorded in the request stage of the metrics, which reports its percentiles.
+ *  A request over the limits of the watchdog of the pipeline, or overflowing the stack of the parser, gets an
+ *  error response like any record without a graph, and the server goes on with the next ones.
+ */
+public class ExtractionServer implements Closeable {
+    public static final String JSON = "json";
+
+    public static final String BINARY = "binary";
+
+    public static final String REQUEST = "request";
+
+    /**
+     *  Limit of the CPU time of a request when none is given, so that a pathological method cannot hold a worker.
+     */
+    public static final long DEFAULT_METHOD_MILLIS = 10_000;
+
+    private static final String NO_GRAPH =
+            "No graph: the record is malformed, does not parse, or exceeds the budget or the limits of the watchdog";
+
+    /**
+     *  Marks the end of the requests of a connection in its queue of responses.
+     */
+    private static final Future<String> END = CompletableFuture.completedFuture(null);
+
+    private final ExtractionPipeline pipeline;
+
+    private final ExtractionMetrics metrics;
+
+    private final boolean binary;
+
+    private final int maxInFlight;
+
+    private final ExecutorService workers;
+
+    private final ExecutorService connections = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("server-connection-%d")
+            .setDaemon(true)
+            .build());
+
+    private final Logger logger = Logger.getLogger(ExtractionServer.class.getName());
+
+    /**
+     *  The pipeline is only used to build single graphs, on the worker threads of the server.
+     */
+    public ExtractionServer(ExtractionPipeline pipeline, ExtractionMetrics metrics, int threads, int maxInFlight,
+                            boolean binary) {
+        this.pipeline = pipeline;
+        this.metrics = metrics;
+        this.binary = binary;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        workers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactoryBuilder()
+                .setNameFormat("server-worker-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     *  Accepts connections on the loopback interface until the server is closed, serving each on its own thread.
+     */
+    public void listen(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            logger.info("Listening on: " + server.getLocalSocketAddress());
+            while (!connections.isShutdown()) {
+                Socket socket = server.accept();
+                connections.execute(() -> {
+                    try (Socket s = socket) {
+                        serve(s.getInputStream(), s.getOutputStream());
+                    } catch (IOException | RuntimeException e) {
+                        logger.warning("Connection failed: " + e);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     *  Serves the requests read from the input until its end, writing the responses in order to the output.
+     *  Responses are read by the calling thread while another one reads the requests, so that a client can wait
+     *  for a response before sending its next request. The output is flushed whenever no response is pending.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        BlockingQueue<Future<String>> responses = new ArrayBlockingQueue<>(maxInFlight);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        Future<?> requests = connections.submit(() -> {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    long start = System.nanoTime();
+                    String request = line;
+                    responses.put(workers.submit(() -> respond(request, start)));
+                }
+            } finally {
+                responses.put(END);
+            }
+            return null;
+        });
+        try {
+            Future<String> response;
+            while ((response = take(responses)) != END) {
+                writer.write(await(response));
+                writer.write('\n');
+                if (responses.isEmpty()) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+            await(requests);
+        } finally {
+            // stops the reading of the requests when the responses can no longer be written
+            requests.cancel(true);
+        }
+    }
+
+    /**
+     *  Builds the response to a request, and records its latency once built.
+     */
+    private String respond(String line, long start) {
+        CompactGraph graph = null;
+        String response;
+        try {
+            graph = pipeline.extractGraph(line);
+            response = graph != null ? format(graph) : error(NO_GRAPH);
+        } catch (RuntimeException | StackOverflowError e) {
+            // the pipeline only handles the stack overflows of the methods when it has a watchdog
+            metrics.failure(REQUEST, e);
+            response = error(e.toString());
+        } finally {
+            if (graph != null) {
+                pipeline.release(graph);
+            }
+        }
+        metrics.stage(REQUEST, start);
+        return response;
+    }
+
+    private String format(CompactGraph graph) {
+        StringWriter response = new StringWriter();
+        try (JsonWriter json = new JsonWriter(response)) {
+            json.beginObject();
+            if (binary) {
+                json.name("graph").value(encode(graph));
+            } else {
+                writeGraph(json, graph);
+            }
+            json.endObject();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return response.toString();
+    }
+
+    private static String error(String message) {
+        StringWriter response = new StringWriter();
+        try (JsonWriter json = new JsonWriter(response)) {
+            json.beginObject().name("error").value(message).endObject();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return response.toString();
+    }
+
+    private static void writeGraph(JsonWriter json, CompactGraph graph) throws IOException {
+        json.name("nodes").beginArray();
+        for (int n = 0; n < graph.getNodeCount(); n++) {
+            json.beginObject()
+                    .name("label").value(graph.getNodeLabel(n))
+                    .name("type").value(NodeTypeEnum.values()[graph.getNodeType(n)].name())
+                    .endObject();
+        }
+        json.endArray();
+        json.name("edges").beginArray();
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            json.beginObject()
+                    .name("type").value(EdgeTypeEnum.values()[graph.getEdgeType(e)].name())
+                    .name("source").value(graph.getEdgeSource(e))
+                    .name("target").value(graph.getEdgeTarget(e))
+                    .endObject();
+        }
+        json.endArray();
+    }
+
+    private static String encode(CompactGraph graph) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            graph.writeTo(out);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    private static <T> T await(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a response", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new IllegalStateException(ee.getCause());
+        }
+    }
+
+    private static <T> T take(BlockingQueue<T> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a response", ie);
+        }
+    }
+
+    @Override
+    public void close() {
+        connections.shutdownNow();
+        workers.shutdownNow();
+    }
+}
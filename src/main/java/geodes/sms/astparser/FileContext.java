@@ -0,0 +1,73 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  Declarations of a source file shared by the graphs of all its methods and constructors, collected once
+ *  when the compilation unit is parsed: the single-type imports of the file, which qualify the labels of the
+ *  IMPORT nodes, and the fields of every class, whose types are linked to the fields a method uses.
+ *  Types are qualified textually, by the import of their outermost name, so that no symbol solver is needed.
+ *  Read-only once built.
+ */
+public class FileContext {
+    private final Map<String, String> imports = new HashMap<>();
+
+    private final Map<TypeDeclaration<?>, Map<String, Type>> fields = new IdentityHashMap<>();
+
+    public FileContext(CompilationUnit cu) {
+        for (ImportDeclaration i : cu.getImports()) {
+            if (!i.isStatic() && !i.isAsterisk()) {
+                imports.put(i.getName().getIdentifier(), i.getNameAsString());
+            }
+        }
+        for (TypeDeclaration<?> type : cu.findAll(TypeDeclaration.class)) {
+            Map<String, Type> typeFields = new LinkedHashMap<>();
+            type.getFields().forEach(f -> f.getVariables().forEach(v -> typeFields.put(v.getNameAsString(), v.getType())));
+            fields.put(type, typeFields);
+        }
+    }
+
+    /**
+     *  Text of a type with its outermost class name qualified by the imports, e.g., List<String>[] becomes
+     *  java.util.List<String>[] when the file imports java.util.List.
+     */
+    public String qualify(Type type) {
+        String text = type.asString();
+        Type element = type.getElementType();
+        if (element.isClassOrInterfaceType() && element.asClassOrInterfaceType().getScope().isEmpty()) {
+            String name = element.asClassOrInterfaceType().getNameAsString();
+            String qualified = imports.get(name);
+            if (qualified != null && text.startsWith(name)) {
+                return qualified + text.substring(name.length());
+            }
+        }
+        return text;
+    }
+
+    /**
+     *  Qualified name of the type named by a class or interface type, without its type arguments.
+     */
+    public String qualifyName(ClassOrInterfaceType type) {
+        String name = type.getNameAsString();
+        return type.getScope().isPresent() ? name : imports.getOrDefault(name, name);
+    }
+
+    /**
+     *  Types of the fields of the class declaring a method or constructor, by field name, in declaration order.
+     */
+    public Map<String, Type> getFields(CallableDeclaration<?> callable) {
+        return callable.findAncestor(TypeDeclaration.class)
+                .map(t -> fields.getOrDefault(t, Map.of()))
+                .orElse(Map.of());
+    }
+}
@@ -0,0 +1,209 @@
+package geodes.sms.astparser;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import geodes.sms.astparser.graph.CompactGraph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ *  Content-addressed cache of method graphs, keyed by a 128-bit hash of the method source.
+ *  Methods that fail to parse are cached too, as an empty entry, so duplicates of them are skipped as well.
+ *  Entries are kept in a bounded in-memory cache and, when a cache file is given, appended to it so that
+ *  later runs over overlapping datasets reuse them.
+ *  The cache file is a sequence of records: the 16 bytes of the key, the length of the entry
+ *  and the graph serialized by CompactGraph.writeTo, or a negative length for a method that does not parse.
+ *  Its index is loaded in memory when the cache is opened.
+ */
+public class GraphCache implements Closeable {
+    public static final String CACHE_FILE = "graph-cache.bin";
+
+    private static final int KEY_BYTES = 16;
+
+    private static final int FAILED = -1;
+
+    private final Cache<HashCode, Optional<CompactGraph>> memory;
+
+    private final FileChannel file;
+
+    private final Map<HashCode, Long> fileIndex = new ConcurrentHashMap<>();
+
+    private long fileSize = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final Logger logger = Logger.getLogger(GraphCache.class.getName());
+
+    public GraphCache(long maxEntries, Path cacheDir) throws IOException {
+        memory = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+        if (cacheDir != null) {
+            file = FileChannel.open(cacheDir.resolve(CACHE_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            loadIndex();
+        } else {
+            file = null;
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(KEY_BYTES + Integer.BYTES);
+        long position = 0;
+        long size = file.size();
+        while (position + header.capacity() <= size) {
+            header.clear();
+            readFully(header, position);
+            byte[] key = new byte[KEY_BYTES];
+            header.get(key);
+            int length = header.getInt();
+            long next = position + header.capacity() + Math.max(0, length);
+            if (next > size) {
+                break;
+            }
+            fileIndex.put(HashCode.fromBytes(key), position);
+            position = next;
+        }
+        if (position < size) {
+            logger.warning(String.format("Ignoring a truncated record at the end of the graph cache (%s bytes)", size - position));
+            file.truncate(position);
+        }
+        fileSize = position;
+        logger.info(String.format("Loaded %s cached graphs", fileIndex.size()));
+    }
+
+    public static HashCode key(String source) {
+        return Hashing.murmur3_128().hashString(source, StandardCharsets.UTF_8);
+    }
+
+    /**
+     *  Key of a method source extracted with options that change its graph, e.g., type resolution,
+     *  so that its graph is cached apart from the default one.
+     */
+    public static HashCode key(String variant, String source) {
+        return Hashing.murmur3_128().newHasher()
+                .putString(variant, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(source, StandardCharsets.UTF_8)
+                .hash();
+    }
+
+    /**
+     *  Looks up the graph of a method source: returns null on a miss, an empty optional for a method
+     *  that does not parse, and otherwise the cached graph, which must not be modified.
+     */
+    public Optional<CompactGraph> get(HashCode key) {
+        Optional<CompactGraph> graph = memory.getIfPresent(key);
+        if (graph == null && file != null) {
+            graph = readEntry(key);
+            if (graph != null) {
+                memory.put(key, graph);
+            }
+        }
+        (graph != null ? hits : misses).incrementAndGet();
+        return graph;
+    }
+
+    /**
+     *  Caches a copy of the graph of a method, or records that it does not parse when graph is null.
+     */
+    public void put(HashCode key, CompactGraph graph) {
+        Optional<CompactGraph> entry = Optional.ofNullable(graph).map(CompactGraph::copy);
+        memory.put(key, entry);
+        if (file != null && !fileIndex.containsKey(key)) {
+            writeEntry(key, entry);
+        }
+    }
+
+    private Optional<CompactGraph> readEntry(HashCode key) {
+        Long position = fileIndex.get(key);
+        if (position == null) {
+            return null;
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(KEY_BYTES + Integer.BYTES);
+            readFully(header, position);
+            int length = header.getInt(KEY_BYTES);
+            if (length == FAILED) {
+                return Optional.empty();
+            }
+            ByteBuffer entry = ByteBuffer.allocate(length);
+            readFully(entry, position + header.capacity());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.array()));
+            return Optional.of(new CompactGraph().readFrom(in));
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private void writeEntry(HashCode key, Optional<CompactGraph> entry) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(key.asBytes());
+            out.writeInt(FAILED);
+            if (entry.isPresent()) {
+                entry.get().writeTo(out);
+            }
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            if (entry.isPresent()) {
+                record.putInt(KEY_BYTES, record.capacity() - KEY_BYTES - Integer.BYTES);
+            }
+            synchronized (this) {
+                if (fileIndex.containsKey(key)) {
+                    return;
+                }
+                long position = fileSize;
+                while (record.hasRemaining()) {
+                    file.write(record, position + record.position());
+                }
+                fileSize += record.capacity();
+                fileIndex.put(key, position);
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the graph cache");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     *  Returns the hits and misses since the last call and resets them.
+     */
+    public long[] resetCounts() {
+        return new long[] {hits.getAndSet(0), misses.getAndSet(0)};
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.force(true);
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package geodes.sms.astparser;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.GraphHasher;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ *  Finds the graphs that are isomorphic to an already written one, by their canonical GraphHasher hash.
+ *  When duplicates are dropped, the seen hashes are kept in an exact set of 64-bit values, 8 to 16 bytes per
+ *  distinct graph, so that a distinct graph is only dropped when its 64-bit hash collides with another.
+ *  When duplicates are only counted, they are kept in a Bloom filter sized for the expected number of distinct
+ *  graphs, so the memory used is bounded whatever the size of the run; in exchange, a graph is counted as a
+ *  duplicate with probability FALSE_POSITIVE_RATE while the filter holds less than the expected number of
+ *  graphs, and more often past it, which is logged once.
+ *  It is used by the ordered writer, so the first of a set of duplicates in input order is the one kept.
+ */
+public class GraphDeduplicator {
+    public static final double FALSE_POSITIVE_RATE = 1e-6;
+
+    private final GraphHasher hasher;
+
+    /**
+     *  Hashes seen when duplicates are only counted, null when they are dropped.
+     */
+    private final BloomFilter<Long> seen;
+
+    /**
+     *  Hashes seen when duplicates are dropped, null when they are only counted.
+     */
+    private final HashSet64 seenExact;
+
+    private final boolean drop;
+
+    private final long expectedGraphs;
+
+    private long graphs = 0;
+
+    private long duplicates = 0;
+
+    private final Logger logger = Logger.getLogger(GraphDeduplicator.class.getName());
+
+    /**
+     *  Duplicates are dropped when drop is set, and only counted otherwise.
+     */
+    public GraphDeduplicator(long expectedGraphs, boolean labels, boolean drop) {
+        this.hasher = new GraphHasher(GraphHasher.DEFAULT_ITERATIONS, labels);
+        this.seen = drop ? null : BloomFilter.create(Funnels.longFunnel(), expectedGraphs, FALSE_POSITIVE_RATE);
+        this.seenExact = drop ? new HashSet64() : null;
+        this.drop = drop;
+        this.expectedGraphs = expectedGraphs;
+    }
+
+    /**
+     *  Records the graph and returns whether it is a duplicate of an already recorded one.
+     */
+    public boolean isDuplicate(CompactGraph graph) {
+        graphs++;
+        if (graphs == expectedGraphs + 1 && !drop) {
+            logger.warning(String.format("More than the %s expected graphs: duplicates are now counted with a "
+                    + "false positive rate above %s, increase --dedup-expected", expectedGraphs, FALSE_POSITIVE_RATE));
+        }
+        long hash = hasher.hash(graph);
+        if (drop ? !seenExact.add(hash) : !seen.put(hash)) {
+            duplicates++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean dropsDuplicates() {
+        return drop;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public Map<String, Object> getSummary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("mode", drop ? "drop" : "count");
+        summary.put("graphs", graphs);
+        summary.put("duplicates", duplicates);
+        summary.put("duplicateRatio", graphs > 0 ? (double) duplicates / graphs : 0);
+        if (drop) {
+            summary.put("distinctHashes", seenExact.size());
+        } else {
+            summary.put("expectedGraphs", expectedGraphs);
+            summary.put("expectedFalsePositiveRate", seen.expectedFpp());
+        }
+        return summary;
+    }
+
+    /**
+     *  Open-addressing set of 64-bit hashes, with linear probing, grown by doubling once half full.
+     */
+    static class HashSet64 {
+        private static final long EMPTY = 0;
+
+        private long[] slots = new long[1 << 10];
+
+        private boolean hasEmpty;
+
+        private int size;
+
+        /**
+         *  Adds a hash and returns whether it was not in the set.
+         */
+        boolean add(long hash) {
+            if (hash == EMPTY) {
+                boolean added = !hasEmpty;
+                hasEmpty = true;
+                return added;
+            }
+            if ((size + 1) * 2 > slots.length) {
+                grow();
+            }
+            if (!insert(slots, hash)) {
+                return false;
+            }
+            size++;
+            return true;
+        }
+
+        int size() {
+            return hasEmpty ? size + 1 : size;
+        }
+
+        private static boolean insert(long[] slots, long hash) {
+            int mask = slots.length - 1;
+            int slot = mix(hash) & mask;
+            while (slots[slot] != EMPTY) {
+                if (slots[slot] == hash) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = hash;
+            return true;
+        }
+
+        private void grow() {
+            if (slots.length == 1 << 30) {
+                throw new IllegalStateException("More than " + size + " distinct graph hashes");
+            }
+            long[] grown = new long[slots.length * 2];
+            Arrays.stream(slots).filter(h -> h != EMPTY).forEach(h -> insert(grown, h));
+            slots = grown;
+        }
+
+        private static int mix(long hash) {
+            long h = hash * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
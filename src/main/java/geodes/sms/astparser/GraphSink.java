@@ -0,0 +1,184 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.utils.Pair;
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.GraphBudget;
+import geodes.sms.astparser.graph.GraphExporter;
+import geodes.sms.astparser.graph.GraphIndex;
+import geodes.sms.astparser.graph.RecordWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ *  Single ordered writer of an extraction run: keeps the graphs that fit the budget, writes them
+ *  through the graph exporters and their JSONL record to the methods file, so that row i of every
+ *  output describes the same method.
+ */
+public class GraphSink implements Consumer<Pair<String, CompactGraph>>, Closeable {
+    private final List<GraphExporter> exporters;
+
+    private final RecordWriter methodsWriter;
+
+    private final GraphBudget budget;
+
+    private final ExtractionMetrics metrics;
+
+    /**
+     *  Optional detection of the graphs isomorphic to an already written one, null when disabled.
+     */
+    private GraphDeduplicator deduplicator;
+
+    /**
+     *  Optional index of the offsets of every graph in the output files, null when disabled.
+     */
+    private GraphIndex index;
+
+    private long rows = 0;
+
+    private final Logger logger = Logger.getLogger(GraphSink.class.getName());
+
+    public GraphSink(List<GraphExporter> exporters, Path methodsFile, int flushBytes, int maxNodes) throws IOException {
+        this(exporters, methodsFile, flushBytes, new GraphBudget(maxNodes, 0), new ExtractionMetrics());
+    }
+
+    public GraphSink(List<GraphExporter> exporters, Path methodsFile, int flushBytes, GraphBudget budget,
+                     ExtractionMetrics metrics) throws IOException {
+        this(exporters, new RecordWriter(methodsFile, flushBytes, true), budget, metrics);
+    }
+
+    /**
+     *  Graphs are usually abandoned by GraphBuilder as soon as they reach the budget, but cached graphs
+     *  may have been built with another budget, so the budget is checked again here.
+     */
+    public GraphSink(List<GraphExporter> exporters, RecordWriter methodsWriter, GraphBudget budget,
+                     ExtractionMetrics metrics) {
+        this.exporters = exporters;
+        this.methodsWriter = methodsWriter;
+        this.budget = budget;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void accept(Pair<String, CompactGraph> g) {
+        metrics.graphSize(g.b.getNodeCount(), g.b.getEdgeCount());
+        if (!budget.fits(g.b)) {
+            metrics.increment(budget.getMaxNodes() > 0 && g.b.getNodeCount() >= budget.getMaxNodes()
+                    ? ExtractionMetrics.DROPPED_MAX_NODES : ExtractionMetrics.DROPPED_MAX_EDGES);
+            return;
+        }
+        if (deduplicator != null && deduplicator.isDuplicate(g.b)) {
+            metrics.increment(ExtractionMetrics.DUPLICATE_GRAPHS);
+            if (deduplicator.dropsDuplicates()) {
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            if (index != null) {
+                index.add(getOutputPositions(), g.b.getNodeCount(), g.b.getEdgeCount());
+            }
+            exporters.forEach(w -> w.writeGraph(g.b));
+            methodsWriter.write((g.a + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        metrics.stage(ExtractionMetrics.EXPORT, start);
+        metrics.increment(ExtractionMetrics.GRAPHS_WRITTEN);
+        rows++;
+    }
+
+    public void setDeduplicator(GraphDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     *  Indexes the graphs written from now on. The index must be opened for the files of getPositions.
+     */
+    public void setIndex(GraphIndex index) {
+        this.index = index;
+    }
+
+    /**
+     *  Number of methods written so far.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public void flush() throws IOException {
+        for (GraphExporter exporter : exporters) {
+            exporter.flush();
+        }
+        methodsWriter.flush();
+        if (index != null) {
+            index.flush();
+        }
+    }
+
+    /**
+     *  Writes every output file and forces it to the storage device, so that their current lengths can be
+     *  recorded as consistent.
+     */
+    public void sync() throws IOException {
+        for (GraphExporter exporter : exporters) {
+            exporter.sync();
+        }
+        methodsWriter.sync();
+        if (index != null) {
+            index.sync();
+        }
+    }
+
+    /**
+     *  Length in bytes of every output file, by file name, buffered records included.
+     */
+    public Map<String, Long> getPositions() {
+        Map<String, Long> positions = getOutputPositions();
+        if (index != null) {
+            positions.put(index.getPath().getFileName().toString(), index.getPosition());
+        }
+        return positions;
+    }
+
+    private Map<String, Long> getOutputPositions() {
+        Map<String, Long> positions = new LinkedHashMap<>();
+        exporters.forEach(e -> positions.putAll(e.getPositions()));
+        positions.put(methodsWriter.getPath().getFileName().toString(), methodsWriter.getPosition());
+        return positions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Closeable output : exporters) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        methodsWriter.close();
+        logger.info(String.format("Wrote %s bytes to %s in %s flushes",
+                methodsWriter.getPosition(), methodsWriter.getPath(), methodsWriter.getFlushes()));
+        if (index != null) {
+            try {
+                index.close();
+                logger.info(String.format("Indexed %s graphs in %s", index.getCount(), index.getPath()));
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
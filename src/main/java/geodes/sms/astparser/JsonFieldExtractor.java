@@ -0,0 +1,95 @@
+package geodes.sms.astparser;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *  Reads a few top-level fields of a JSONL record with a streaming reader, skipping the values of the other
+ *  fields instead of building a tree of the whole record as Gson does when decoding it to a Map.
+ *  Records are still validated as a whole, so that a line is accepted or rejected exactly as by
+ *  gson.fromJson(line, Map.class): the reader is lenient, duplicate keys and trailing data are rejected.
+ *  A wanted field whose value is neither a string nor null is rare, and decoded by Gson to keep its
+ *  textual form identical.
+ */
+public class JsonFieldExtractor {
+    public static final String ORIGINAL_STRING = "original_string";
+
+    public static final String URL = "url";
+
+    public static final String FUNC_NAME = "func_name";
+
+    private final String[] fields;
+
+    private final Set<String> names = new HashSet<>();
+
+    private Gson gson;
+
+    public JsonFieldExtractor(String... fields) {
+        this.fields = fields;
+    }
+
+    /**
+     *  Returns the values of the fields, in the order they were given, with null for a missing or null field,
+     *  or null when the line is not a valid JSON object. Instances are not thread-safe.
+     */
+    public String[] extract(String line) {
+        String[] values = new String[fields.length];
+        names.clear();
+        try {
+            JsonReader reader = new JsonReader(new StringReader(line));
+            reader.setLenient(true);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (!names.add(name)) {
+                    return null;
+                }
+                int field = indexOf(name);
+                if (field < 0) {
+                    reader.skipValue();
+                } else if (reader.peek() == JsonToken.STRING) {
+                    values[field] = reader.nextString();
+                } else if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else {
+                    return extractWithGson(line);
+                }
+            }
+            reader.endObject();
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return values;
+    }
+
+    private int indexOf(String name) {
+        for (int f = 0; f < fields.length; f++) {
+            if (fields[f].equals(name)) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    private String[] extractWithGson(String line) {
+        if (gson == null) {
+            gson = new Gson();
+        }
+        Map<?, ?> record = gson.fromJson(line, Map.class);
+        return Arrays.stream(fields)
+                .map(record::get)
+                .map(v -> v != null ? v.toString() : null)
+                .toArray(String[]::new);
+    }
+}
@@ -1,30 +1,45 @@
 package geodes.sms.astparser;
 
-import com.github.javaparser.StaticJavaParser;
-import com.github.javaparser.ast.body.MethodDeclaration;
-import com.github.javaparser.symbolsolver.JavaSymbolSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
-import com.github.javaparser.utils.Pair;
-import com.google.gson.Gson;
+import com.github.javaparser.ParserConfiguration;
+import com.google.common.cache.Cache;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import geodes.sms.astparser.graph.GraphBudget;
+import geodes.sms.astparser.graph.GraphExporter;
+import geodes.sms.astparser.graph.GraphIndex;
+import geodes.sms.astparser.graph.GraphToBinary;
 import geodes.sms.astparser.graph.GraphToCSV;
+import geodes.sms.astparser.graph.LabelVocabulary;
+import geodes.sms.astparser.graph.RecordWriter;
+import geodes.sms.astparser.graph.ShardedExporter;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 public class Main {
-    private static final int maxNodes = 100;
+    private static final int INPUT_BUFFER_BYTES = 1 << 16;
 
     public static void main(String[] args) {
         InputStream stream = Main.class.getClassLoader().
@@ -38,82 +53,704 @@ public class Main {
         Logger logger = Logger.getLogger(Main.class.getName());
         logger.setLevel(Level.INFO);
 
-        String basePath = args[0];
-        String outputDir = args[1];
-        String outputFileName = args[2];
-
-        logger.info("Loading symbol resolver...");
-        CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
-        combinedTypeSolver.add(new ReflectionTypeSolver());
+        Options options = new Options();
+        options.addOption(Option.builder("t")
+                .longOpt("threads")
+                .hasArg()
+                .argName("N")
+                .desc("number of worker threads used to parse methods and build their graphs (default: 1)")
+                .build());
+        options.addOption(Option.builder("q")
+                .longOpt("queue-size")
+                .hasArg()
+                .argName("N")
+                .desc("maximum number of methods in flight between the reader and the writer (default: 64 per thread)")
+                .build());
+        options.addOption(Option.builder("f")
+                .longOpt("format")
+                .hasArg()
+                .argName("FORMAT")
+                .desc("output format of the graphs: csv, binary or both (default: csv)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("flush-bytes")
+                .hasArg()
+                .argName("BYTES")
+                .desc("size of the write buffer of each output file (default: " + GraphToCSV.DEFAULT_FLUSH_BYTES + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("flush-graphs")
+                .hasArg()
+                .argName("N")
+                .desc("also flush the CSV outputs every N graphs, 0 to flush only full buffers (default: 0)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("shard-graphs")
+                .hasArg()
+                .argName("N")
+                .desc("write the graphs into shard directories of N graphs each, listed in "
+                        + ShardedExporter.MANIFEST_FILE + " with their rows in the methods file")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("shard-bytes")
+                .hasArg()
+                .argName("BYTES")
+                .desc("write the graphs into shard directories, starting a new shard once its files hold BYTES bytes")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("label-ids")
+                .desc("write label ids instead of labels in nodes.csv, and the labels with their ids and counts in "
+                        + LabelVocabulary.VOCABULARY_FILE)
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("vocab")
+                .hasArg()
+                .argName("FILE")
+                .desc("label vocabulary of a previous run whose ids are kept, implies --label-ids")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("vocab-first-seen-size")
+                .hasArg()
+                .argName("N")
+                .desc("maximum number of label ids, the out-of-vocabulary id 0 included, given to the labels in the "
+                        + "order they are first seen; a vocabulary loaded with --vocab keeps its most frequent labels, "
+                        + "so a frequency cap takes a first run without limit (default: no limit)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("dedup")
+                .hasArg()
+                .argName("MODE")
+                .desc("find the graphs isomorphic to an already written one: drop them, or only count them "
+                        + "in the metrics (MODE: drop or count)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("dedup-ignore-labels")
+                .desc("compare the graphs by their structure and node types only, ignoring the node labels")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("dedup-expected")
+                .hasArg()
+                .argName("N")
+                .desc("expected number of distinct graphs, which sizes the Bloom filter of --dedup count; --dedup drop "
+                        + "keeps the exact hashes (default: 10000000)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("graph-index")
+                .desc("also write " + GraphIndex.INDEX_FILE + ", the offsets of every graph in every output file and "
+                        + "in the methods file, to read any single graph with GraphIndexReader")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("compress")
+                .desc("write the CSV outputs and the methods file gzip compressed, with a .gz suffix; "
+                        + "not available with the binary format nor with --incremental")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("cache")
+                .desc("reuse the graphs of methods whose source was already extracted")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("cache-size")
+                .hasArg()
+                .argName("N")
+                .desc("maximum number of graphs kept in the in-memory cache (default: 100000)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("cache-dir")
+                .hasArg()
+                .argName("DIR")
+                .desc("directory of an on-disk graph cache shared between runs, implies --cache")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("incremental")
+                .desc("only extract the input files that are new or changed since the previous incremental run")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("checkpoint-interval")
+                .hasArg()
+                .argName("SECONDS")
+                .desc("save a checkpoint of the run, with the input line reached and the length of every output, "
+                        + "every SECONDS seconds and after every input file, 0 to disable (default: 0)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("resume")
+                .desc("truncate the outputs back to the checkpoint of a previous run and go on from its input line, "
+                        + "saving new checkpoints; runs from the start when there is no checkpoint")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-nodes")
+                .hasArg()
+                .argName("N")
+                .desc("drop the methods whose graph has N nodes or more, 0 for no limit (default: 100)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-edges")
+                .hasArg()
+                .argName("N")
+                .desc("drop the methods whose graph has N edges or more, 0 for no limit (default: 0)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-identifiers")
+                .hasArg()
+                .argName("N")
+                .desc("skip, before parsing them, the methods whose source has an estimated N distinct identifiers "
+                        + "or more, 0 to parse every method (default: 0). The estimate may count identifiers that "
+                        + "do not become nodes, so N should be well above --max-nodes")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-method-millis")
+                .hasArg()
+                .argName("MS")
+                .desc("quarantine the methods whose parsing and graph take more than MS ms of CPU time (default: 0, "
+                        + "no limit, or " + ExtractionServer.DEFAULT_METHOD_MILLIS + " with --serve)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-ast-nodes")
+                .hasArg()
+                .argName("N")
+                .desc("quarantine the methods whose parsed AST has more than N nodes (default: 0, no limit)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("quarantine-file")
+                .hasArg()
+                .argName("FILE")
+                .desc("JSONL file receiving the records of the quarantined methods (default: <outputDir>/"
+                        + MethodWatchdog.QUARANTINE_FILE + ", none with --serve)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("resolve-types")
+                .desc("label the types and method calls with their fully qualified names when they can be resolved "
+                        + "without the imports of their file, i.e., primitive, java.lang and qualified JDK types")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("type-cache-size")
+                .hasArg()
+                .argName("N")
+                .desc("maximum number of resolved type names kept in the cache shared by the workers (default: 100000)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("metrics-interval")
+                .hasArg()
+                .argName("SECONDS")
+                .desc("log the extraction metrics every SECONDS seconds, 0 to disable (default: 60)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("metrics-file")
+                .hasArg()
+                .argName("FILE")
+                .desc("JSON summary of the extraction metrics written at the end of the run (default: <outputDir>/"
+                        + ExtractionMetrics.SUMMARY_FILE + ")")
+                .build());
 
-        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
-        StaticJavaParser.getConfiguration().setSymbolResolver(symbolSolver);
-        // StaticJavaParser.getConfiguration().setAttributeComments(false);
+        options.addOption(Option.builder()
+                .longOpt("parser-profile")
+                .hasArg()
+                .argName("PROFILE")
+                .desc("configuration of the parsers: default, or fast to turn off the comment attribution and the "
+                        + "token bookkeeping the graphs do not use (default: default)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("map-input-bytes")
+                .hasArg()
+                .argName("BYTES")
+                .desc("size from which an uncompressed .jsonl file is memory-mapped and split into blocks of lines "
+                        + "decoded by the workers, 0 to read every file with one reader (default: 268435456)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("java-sources")
+                .desc("extract the methods and constructors of the .java files under basePath, parsing every file "
+                        + "once, instead of the methods of JSONL records")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("serve")
+                .desc("run as a server building the graphs of the JSONL method records sent one per line, "
+                        + "on stdin or on --port, and answering one line per record; no positional argument is needed")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("port")
+                .hasArg()
+                .argName("PORT")
+                .desc("local port the server listens on, instead of stdin and stdout")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("response-format")
+                .hasArg()
+                .argName("FORMAT")
+                .desc("format of the graphs answered by the server: json (nodes and edges) or binary (Base64) "
+                        + "(default: json)")
+                .build());
 
-        GraphToCSV graphWriter = new GraphToCSV(outputDir);
-        StringBuffer methodsBuffer = new StringBuffer();
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+            if (!cmd.hasOption("serve") && cmd.getArgs().length < 3) {
+                throw new ParseException("Missing positional arguments");
+            }
+        } catch (ParseException pe) {
+            logger.severe(pe.getMessage());
+            new HelpFormatter().printHelp("java-ast-to-graph [options] <basePath> <outputDir> <outputFileName>", options);
+            return;
+        }
 
+        int threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+        int queueSize = Integer.parseInt(cmd.getOptionValue("queue-size", String.valueOf(64 * threads)));
+        String format = cmd.getOptionValue("format", "csv");
+        int flushBytes = Integer.parseInt(
+                cmd.getOptionValue("flush-bytes", String.valueOf(GraphToCSV.DEFAULT_FLUSH_BYTES)));
+        int flushGraphs = Integer.parseInt(cmd.getOptionValue("flush-graphs", "0"));
+        boolean compress = cmd.hasOption("compress");
+        boolean graphIndex = cmd.hasOption("graph-index");
+        boolean labelIds = cmd.hasOption("label-ids") || cmd.hasOption("vocab");
+        int vocabSize = Integer.parseInt(cmd.getOptionValue("vocab-first-seen-size", "0"));
+        String dedup = cmd.getOptionValue("dedup");
+        long dedupExpected = Long.parseLong(cmd.getOptionValue("dedup-expected", "10000000"));
+        long shardGraphs = Long.parseLong(cmd.getOptionValue("shard-graphs", "0"));
+        long shardBytes = Long.parseLong(cmd.getOptionValue("shard-bytes", "0"));
+        boolean sharded = shardGraphs > 0 || shardBytes > 0;
+        boolean useCache = cmd.hasOption("cache") || cmd.hasOption("cache-dir");
+        long cacheSize = Long.parseLong(cmd.getOptionValue("cache-size", "100000"));
+        String cacheDir = cmd.getOptionValue("cache-dir");
+        boolean incremental = cmd.hasOption("incremental");
+        long checkpointInterval = Long.parseLong(cmd.getOptionValue("checkpoint-interval", "0"));
+        boolean resume = cmd.hasOption("resume");
+        boolean checkpoints = resume || checkpointInterval > 0;
+        boolean javaSources = cmd.hasOption("java-sources");
+        long mapInputBytes = Long.parseLong(cmd.getOptionValue("map-input-bytes", String.valueOf(1L << 28)));
+        ParserProfile profile;
         try {
-            Path methodFp = Paths.get(outputDir).resolve(outputFileName);
-            if (!Files.exists(methodFp)) {
-                Files.createFile(methodFp);
-            }
-
-            Gson gson = new Gson();
-            AtomicInteger globalCounter = new AtomicInteger(0);
-            Files.walk(Paths.get(basePath))
-                    .map(Path::toString)
-                    .filter(f -> f.endsWith(".jsonl"))
-                    .forEach(f -> {
-                        logger.info(String.format("Parsing file: %s", f));
-                        try {
-                            List<String> lines = Files.readAllLines(Paths.get(f));
-                            logger.info(String.format("Number of methods to parse: %s", lines.size()));
-
-                            List<Pair<String, MethodDeclaration>> methods = lines.stream().map(line -> {
-                                try {
-                                    Map jsonl = gson.fromJson(line, Map.class);
-                                    return new Pair<>(
-                                        line,
-                                        StaticJavaParser.parseMethodDeclaration(jsonl.get("original_string").toString())
-                                    );
-                                } catch (Exception ignored) { }
-                                return null;
-                            }).filter(Objects::nonNull).collect(Collectors.toList());
-                            MethodASTParser parser = new MethodASTParser(methods);
-
-                            AtomicInteger counter = new AtomicInteger(0);
-                            logger.info("Exporting method graphs...");
-                            parser.getMethodGraphs().forEach(g -> {
-                                if (g.b.nodes().size() < maxNodes) {
-                                    graphWriter.setGraph(g.b);
-                                    graphWriter.writeGraphToCSV();
-                                    graphWriter.setGraph(null);
-
-                                    methodsBuffer.append(g.a);
-                                    methodsBuffer.append("\n");
-
-                                    counter.getAndIncrement();
+            profile = ParserProfile.valueOf(cmd.getOptionValue("parser-profile", "default").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.severe("Unknown parser profile: " + cmd.getOptionValue("parser-profile"));
+            return;
+        }
+        // the records of the methods of Java sources are their token ranges
+        Supplier<ParserConfiguration> configuration = javaSources
+                ? () -> profile.newConfiguration().setStoreTokens(true) : profile::newConfiguration;
+        GraphBudget budget = new GraphBudget(
+                Integer.parseInt(cmd.getOptionValue("max-nodes", "100")),
+                Integer.parseInt(cmd.getOptionValue("max-edges", "0")),
+                Integer.parseInt(cmd.getOptionValue("max-identifiers", "0")));
+        long maxMethodMillis = Long.parseLong(cmd.getOptionValue("max-method-millis",
+                cmd.hasOption("serve") ? String.valueOf(ExtractionServer.DEFAULT_METHOD_MILLIS) : "0"));
+        int maxAstNodes = Integer.parseInt(cmd.getOptionValue("max-ast-nodes", "0"));
+        boolean resolveTypes = cmd.hasOption("resolve-types");
+        long typeCacheSize = Long.parseLong(cmd.getOptionValue("type-cache-size", "100000"));
+        long metricsInterval = Long.parseLong(cmd.getOptionValue("metrics-interval", "60"));
+
+        // the symbol solver is only loaded, by every worker, when the types are resolved
+        Cache<String, String> typeNames = null;
+        if (resolveTypes) {
+            logger.info("Resolving types and method calls");
+            typeNames = TypeResolver.newCache(typeCacheSize);
+        }
+        Cache<String, String> sharedTypeNames = typeNames;
+
+        if (cmd.hasOption("serve")) {
+            String responseFormat = cmd.getOptionValue("response-format", ExtractionServer.JSON);
+            if (!responseFormat.equals(ExtractionServer.JSON) && !responseFormat.equals(ExtractionServer.BINARY)) {
+                logger.severe("Unknown response format: " + responseFormat);
+                return;
+            }
+            int port = Integer.parseInt(cmd.getOptionValue("port", "-1"));
+            Path metricsFile = cmd.hasOption("metrics-file") ? Paths.get(cmd.getOptionValue("metrics-file")) : null;
+            Path quarantineFile = cmd.hasOption("quarantine-file")
+                    ? Paths.get(cmd.getOptionValue("quarantine-file")) : null;
+            serve(port, threads, queueSize, responseFormat.equals(ExtractionServer.BINARY), configuration,
+                    useCache ? cacheSize : 0, resolveTypes ? () -> new TypeResolver(sharedTypeNames) : null,
+                    budget, metricsInterval, metricsFile, maxMethodMillis, maxAstNodes, quarantineFile);
+            return;
+        }
+
+        String basePath = cmd.getArgs()[0];
+        String outputDir = cmd.getArgs()[1];
+        String outputFileName = cmd.getArgs()[2];
+
+        if (!format.equals("csv") && !format.equals("binary") && !format.equals("both")) {
+            logger.severe("Unknown output format: " + format);
+            return;
+        }
+        // the binary columns are memory-mapped and incremental runs truncate the outputs at known lengths,
+        //   neither of which a gzip stream allows
+        if (compress && (!format.equals("csv") || incremental)) {
+            logger.severe("Compressed outputs are only available for the csv format without --incremental");
+            return;
+        }
+        if (dedup != null && !dedup.equals("drop") && !dedup.equals("count")) {
+            logger.severe("Unknown deduplication mode: " + dedup);
+            return;
+        }
+        // the manifest tracks input files one by one, and the imports of the files qualify the types
+        if (javaSources && (incremental || resolveTypes)) {
+            logger.severe("Java sources are not available with --incremental or --resolve-types");
+            return;
+        }
+        // offsets are positions in uncompressed files, and every shard restarts them
+        if (graphIndex && (compress || sharded)) {
+            logger.severe("The graph index is not available with --compress or sharded outputs");
+            return;
+        }
+        // outputs are truncated at byte lengths, and the deduplicated graphs are not recorded
+        if (checkpoints && (incremental || javaSources || compress || sharded || dedup != null)) {
+            logger.severe("Checkpoints are not available with --incremental, --java-sources, --compress, "
+                    + "--dedup or sharded outputs");
+            return;
+        }
+        if (sharded && incremental) {
+            logger.severe("Sharded outputs are not available with --incremental");
+            return;
+        }
+        Path outputPath = Paths.get(outputDir);
+        Path methodFp = outputPath.resolve(compress ? outputFileName + ".gz" : outputFileName);
+        Path metricsFile = cmd.hasOption("metrics-file")
+                ? Paths.get(cmd.getOptionValue("metrics-file"))
+                : outputPath.resolve(ExtractionMetrics.SUMMARY_FILE);
+        Path quarantineFile = cmd.hasOption("quarantine-file")
+                ? Paths.get(cmd.getOptionValue("quarantine-file"))
+                : outputPath.resolve(MethodWatchdog.QUARANTINE_FILE);
+
+        List<Path> inputs;
+        ExtractionManifest manifest = null;
+        ExtractionCheckpoint checkpoint = null;
+        boolean append = false;
+        try (Stream<Path> files = Files.walk(Paths.get(basePath))) {
+            inputs = files.filter(f -> javaSources ? f.toString().endsWith(".java")
+                            : f.toString().endsWith(".jsonl") || f.toString().endsWith(".jsonl.gz"))
+                    .collect(Collectors.toList());
+            if (incremental) {
+                manifest = ExtractionManifest.load(outputPath);
+                append = !manifest.getShards().isEmpty();
+                inputs = planIncrementalRun(manifest, inputs, outputPath, methodFp);
+                logger.info(String.format("Number of new or changed files to extract: %s", inputs.size()));
+            } else if (sharded) {
+                // the shard manifest gives the rows of the methods file from its start, and only lists the shards
+                // of this run, so the outputs of a previous sharded run are removed rather than appended to
+                List<Path> staleShards = ShardedExporter.removeShards(outputPath);
+                if (!staleShards.isEmpty()) {
+                    logger.info(String.format("Removed %s shard(s) of a previous run from: %s",
+                            staleShards.size(), outputPath));
+                }
+                if (Files.deleteIfExists(methodFp)) {
+                    logger.info("Removed the methods file of a previous run: " + methodFp);
+                }
+            }
+            if (resume) {
+                checkpoint = ExtractionCheckpoint.load(outputPath);
+            } else {
+                Files.deleteIfExists(outputPath.resolve(ExtractionCheckpoint.CHECKPOINT_FILE));
+            }
+            if (checkpoint != null) {
+                ExtractionCheckpoint resumed = checkpoint;
+                ExtractionManifest.truncateOutputs(outputPath, resumed.getPositions());
+                append = true;
+                // the file being read when the checkpoint was saved goes on first
+                inputs = inputs.stream()
+                        .filter(f -> !resumed.isCompleted(f))
+                        .sorted(Comparator.comparing(
+                                (Path f) -> !f.toAbsolutePath().toString().equals(resumed.getPath())))
+                        .collect(Collectors.toList());
+                logger.info(String.format("Resuming after %s rows, %s input file(s) left",
+                        resumed.getRows(), inputs.size()));
+            } else if (checkpoints) {
+                checkpoint = new ExtractionCheckpoint();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        LabelVocabulary vocabulary = null;
+        Path vocabularyFile = outputPath.resolve(LabelVocabulary.VOCABULARY_FILE);
+        if (labelIds) {
+            // an incremental run goes on with the ids of the vocabulary of the previous runs, a resumed run with
+            // the vocabulary saved with its checkpoint
+            Path resumed = checkpoint != null ? checkpoint.getVocabularyFile(outputPath) : null;
+            Path previous = resumed != null ? resumed
+                    : cmd.hasOption("vocab") ? Paths.get(cmd.getOptionValue("vocab"))
+                    : append && Files.exists(vocabularyFile) ? vocabularyFile : null;
+            try {
+                vocabulary = previous != null ? LabelVocabulary.load(previous, vocabSize) : new LabelVocabulary(vocabSize);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        LabelVocabulary labelVocabulary = vocabulary;
+
+        List<GraphExporter> graphWriters;
+        if (sharded) {
+            graphWriters = List.of(new ShardedExporter(outputPath, shardGraphs, shardBytes, dir -> openExporters(
+                    dir.toString(), format, flushBytes, flushGraphs, false, compress, labelVocabulary)));
+        } else {
+            graphWriters = openExporters(outputDir, format, flushBytes, flushGraphs, append, compress, labelVocabulary);
+        }
+
+        GraphCache cache = null;
+        if (useCache) {
+            try {
+                if (cacheDir != null) {
+                    Files.createDirectories(Paths.get(cacheDir));
+                }
+                cache = new GraphCache(cacheSize, cacheDir != null ? Paths.get(cacheDir) : null);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        logger.info(String.format("Extracting method graphs with %s worker thread(s)", threads));
+        try (ExtractionMetrics metrics = new ExtractionMetrics();
+             MethodWatchdog watchdog = maxMethodMillis > 0 || maxAstNodes > 0
+                     ? new MethodWatchdog(maxMethodMillis, maxAstNodes, quarantineFile, metrics) : null;
+             GraphCache graphCache = cache;
+             GraphSink sink = new GraphSink(graphWriters,
+                     new RecordWriter(methodFp, flushBytes, true, compress), budget, metrics);
+             ExtractionPipeline pipeline = new ExtractionPipeline(threads, queueSize, configuration,
+                     graphCache, metrics, resolveTypes ? () -> new TypeResolver(sharedTypeNames) : null, budget)) {
+            metrics.startReporting(metricsInterval);
+            // the graphs of the cache directory outlive the run, and may be read by a run with another profile
+            pipeline.setCacheVariant(profile.getCacheVariant());
+            pipeline.setWatchdog(watchdog);
+            if (dedup != null) {
+                GraphDeduplicator deduplicator = new GraphDeduplicator(
+                        dedupExpected, !cmd.hasOption("dedup-ignore-labels"), dedup.equals("drop"));
+                sink.setDeduplicator(deduplicator);
+                metrics.addSection("deduplication", deduplicator::getSummary);
+            }
+            long firstRow = 0;
+            if (manifest != null && !manifest.getShards().isEmpty()) {
+                ExtractionManifest.Shard last = manifest.getShards().get(manifest.getShards().size() - 1);
+                firstRow = last.getFirstRow() + last.getRows();
+            }
+            long writtenRows = checkpoint != null ? checkpoint.getRows() : firstRow;
+            if (graphIndex) {
+                GraphIndex index = new GraphIndex(outputPath.resolve(GraphIndex.INDEX_FILE),
+                        sink.getPositions().keySet(), flushBytes, append);
+                sink.setIndex(index);
+                // the index is only truncated with the outputs when the previous runs wrote it too
+                if (index.getCount() != writtenRows) {
+                    logger.severe(String.format("The graph index holds %s graphs instead of %s, "
+                            + "run without --incremental or --resume to rebuild it", index.getCount(), writtenRows));
+                    return;
+                }
+            }
+            if (checkpoint != null) {
+                checkpoint.attach(outputPath, sink, labelVocabulary, checkpointInterval);
+            }
+            if (javaSources) {
+                logger.info(String.format("Parsing %s Java source files in: %s", inputs.size(), basePath));
+                long start = System.nanoTime();
+                long methods = metrics.getCount(ExtractionMetrics.METHODS_READ);
+                try {
+                    pipeline.extractFiles(inputs.iterator(), sink);
+                } catch (UncheckedIOException e) {
+                    e.printStackTrace();
+                }
+                methods = metrics.getCount(ExtractionMetrics.METHODS_READ) - methods;
+                logger.info(String.format("Number of methods read: %s", methods));
+                metrics.fileCompleted(Paths.get(basePath), methods, sink.getRows(), System.nanoTime() - start);
+                inputs = List.of();
+            }
+            for (Path f : inputs) {
+                logger.info(String.format("Parsing file: %s", f));
+                logger.info("Writing methods contents in: " + methodFp);
+                long rows = sink.getRows();
+                ExtractionManifest.Shard shard = null;
+                if (manifest != null) {
+                    shard = manifest.addShard(f, firstRow + rows, sink.getPositions());
+                }
+                long skip = 0;
+                if (checkpoint != null) {
+                    ExtractionCheckpoint progress = checkpoint;
+                    progress.startFile(f);
+                    skip = progress.getLines(f);
+                    long skipped = skip;
+                    pipeline.setProgress(read -> progress.progress(skipped + read));
+                }
+                long start = System.nanoTime();
+                // the manifest identifies an input by the hash of the bytes read to extract it
+                String sha256 = null;
+                try {
+                    long lines;
+                    if (mapInputBytes > 0 && !f.toString().endsWith(".gz") && Files.size(f) >= mapInputBytes) {
+                        try (MappedJsonlReader reader =
+                                     new MappedJsonlReader(f, MappedJsonlReader.DEFAULT_BLOCK_BYTES)) {
+                            Hasher hasher = manifest != null ? Hashing.sha256().newHasher() : null;
+                            reader.setHasher(hasher);
+                            reader.skipLines(skip);
+                            lines = pipeline.extractMapped(reader, sink);
+                            if (hasher != null) {
+                                while (reader.nextBlock() != null) {
+                                    // hashes the blocks left after a line that stopped the extraction
                                 }
-                            });
-
-                            logger.info("Writing methods contents in: " + methodFp);
-                            Files.write(
-                                methodFp,
-                                String.valueOf(methodsBuffer).getBytes(),
-                                StandardOpenOption.APPEND
-                            );
-                            methodsBuffer.delete(0, methodsBuffer.length());
-
-                            logger.info(String.format("Number of parsed methods: %s", counter));
-                            globalCounter.set(globalCounter.get() + counter.get());
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                                sha256 = hasher.hash().toString();
+                            }
+                        }
+                    } else {
+                        InputStream in = Files.newInputStream(f);
+                        HashingInputStream hashing = manifest != null
+                                ? new HashingInputStream(Hashing.sha256(), in) : null;
+                        try (Reader reader = openInput(f, hashing != null ? hashing : in)) {
+                            Iterator<String> records = MappedJsonlReader.lines(reader);
+                            for (long l = 0; l < skip && records.hasNext(); l++) {
+                                records.next();
+                            }
+                            lines = pipeline.extract(records, sink);
+                            if (hashing != null) {
+                                hashing.transferTo(OutputStream.nullOutputStream());
+                                sha256 = hashing.hash().toString();
+                            }
                         }
-                    });
-            logger.info(String.format("Total number of parsed methods: %s", globalCounter));
+                    }
+
+                    logger.info(String.format("Number of methods read: %s", lines));
+                    logger.info(String.format("Number of parsed methods: %s", sink.getRows() - rows));
+                    metrics.fileCompleted(f, lines, sink.getRows() - rows, System.nanoTime() - start);
+                    if (graphCache != null) {
+                        long[] counts = graphCache.resetCounts();
+                        logger.info(String.format("Graph cache hits: %s, misses: %s", counts[0], counts[1]));
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    e.printStackTrace();
+                }
+                if (checkpoint != null) {
+                    checkpoint.completeFile();
+                }
+                if (manifest != null) {
+                    sink.flush();
+                    manifest.completeShard(shard, sink.getRows() - rows, sink.getPositions(), sha256);
+                    manifest.save(outputPath);
+                }
+            }
+            logger.info(String.format("Total number of parsed methods: %s", sink.getRows()));
+            if (labelVocabulary != null) {
+                labelVocabulary.write(vocabularyFile);
+                logger.info(String.format("Wrote %s label ids to: %s", labelVocabulary.size(), vocabularyFile));
+            }
+            if (sharedTypeNames != null) {
+                logger.info("Type name cache: " + sharedTypeNames.stats());
+            }
+            metrics.report();
+            metrics.writeSummary(metricsFile);
+            logger.info("Wrote extraction metrics to: " + metricsFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     *  Serves extraction requests on stdin and stdout until the end of stdin, or on a local port until the
+     *  process is stopped. The metrics, with the percentiles of the request latencies, are logged periodically.
+     *  The requests over the limits of the watchdog are only counted, unless a quarantine file is given.
+     */
+    private static void serve(int port, int threads, int queueSize, boolean binary,
+                              Supplier<ParserConfiguration> configuration, long cacheSize,
+                              Supplier<TypeResolver> resolver, GraphBudget budget, long metricsInterval,
+                              Path metricsFile, long maxMethodMillis, int maxAstNodes, Path quarantineFile) {
+        Logger logger = Logger.getLogger(Main.class.getName());
+        logger.info(String.format("Serving extraction requests with %s worker thread(s) on %s",
+                threads, port >= 0 ? "port " + port : "stdin"));
+        try (ExtractionMetrics metrics = new ExtractionMetrics();
+             GraphCache graphCache = cacheSize > 0 ? new GraphCache(cacheSize, null) : null;
+             MethodWatchdog watchdog = maxMethodMillis > 0 || maxAstNodes > 0
+                     ? new MethodWatchdog(maxMethodMillis, maxAstNodes, quarantineFile, metrics) : null;
+             ExtractionPipeline pipeline = new ExtractionPipeline(1, 1, configuration,
+                     graphCache, metrics, resolver, budget);
+             ExtractionServer server = new ExtractionServer(pipeline, metrics, threads, queueSize, binary)) {
+            pipeline.setWatchdog(watchdog);
+            metrics.startReporting(metricsInterval);
+            if (port >= 0) {
+                server.listen(port);
+            } else {
+                server.serve(System.in, System.out);
+            }
+            metrics.report();
+            if (metricsFile != null) {
+                metrics.writeSummary(metricsFile);
+                logger.info("Wrote extraction metrics to: " + metricsFile);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    private static List<GraphExporter> openExporters(String dir, String format, int flushBytes, int flushGraphs,
+                                                     boolean append, boolean compress, LabelVocabulary vocabulary) {
+        List<GraphExporter> exporters = new ArrayList<>();
+        if (format.equals("csv") || format.equals("both")) {
+            GraphToCSV csv = new GraphToCSV(dir, flushBytes, flushGraphs, append, compress);
+            csv.setLabelIds(vocabulary);
+            exporters.add(csv);
+        }
+        if (format.equals("binary") || format.equals("both")) {
+            exporters.add(new GraphToBinary(dir, flushBytes, append));
+        }
+        return exporters;
+    }
+
+    /**
+     *  Opens the bytes of an input file, decompressing them on the fly when it is a .jsonl.gz file, to be split
+     *  into lines by MappedJsonlReader.lines, which buffers them.
+     *  Like Files.newBufferedReader, the reader fails on malformed UTF-8 instead of replacing it.
+     */
+    private static Reader openInput(Path file, InputStream bytes) throws IOException {
+        InputStream in = bytes;
+        if (file.toString().endsWith(".gz")) {
+            try {
+                in = new GZIPInputStream(bytes, INPUT_BUFFER_BYTES);
+            } catch (IOException e) {
+                bytes.close();
+                throw e;
+            }
+        }
+        return new InputStreamReader(in, StandardCharsets.UTF_8.newDecoder());
+    }
+
+    /**
+     *  Brings the outputs back to the end of the last shard of the manifest that is still up to date, and returns
+     *  the input files to extract after it: the first changed or removed shard, every shard after it, then the
+     *  input files the manifest does not know about. The files are returned as absolute paths, like the ones of
+     *  the manifest, whichever way the base path was given.
+     */
+    static List<Path> planIncrementalRun(ExtractionManifest manifest, List<Path> inputs,
+                                         Path outputDir, Path methodsFile) throws IOException {
+        List<Path> files = inputs.stream()
+                .map(p -> p.toAbsolutePath().normalize())
+                .collect(Collectors.toList());
+        Set<String> inputPaths = files.stream()
+                .map(Path::toString)
+                .collect(Collectors.toSet());
+
+        ExtractionManifest.Shard firstStale = null;
+        for (ExtractionManifest.Shard shard : manifest.getShards()) {
+            Path file = Paths.get(shard.getPath());
+            if (!inputPaths.contains(shard.getPath()) || shard.getEndPositions().isEmpty() || !shard.matches(file)) {
+                firstStale = shard;
+                break;
+            }
+        }
+
+        List<Path> pending = new ArrayList<>();
+        if (firstStale != null) {
+            Logger.getLogger(Main.class.getName()).info("Re-extracting from changed file: " + firstStale.getPath());
+            List<ExtractionManifest.Shard> stale = new ArrayList<>(manifest.getShards().subList(
+                    manifest.getShards().indexOf(firstStale), manifest.getShards().size()));
+            ExtractionManifest.truncateOutputs(outputDir, firstStale.getStartPositions());
+            manifest.truncate(firstStale);
+            stale.stream()
+                    .filter(s -> inputPaths.contains(s.getPath()))
+                    .map(s -> Paths.get(s.getPath()))
+                    .forEach(pending::add);
+        } else if (!manifest.getShards().isEmpty()) {
+            ExtractionManifest.Shard last = manifest.getShards().get(manifest.getShards().size() - 1);
+            ExtractionManifest.truncateOutputs(outputDir, last.getEndPositions());
+        }
+        if (manifest.getShards().isEmpty()) {
+            Files.deleteIfExists(methodsFile);
+        }
+
+        files.stream()
+                .filter(p -> manifest.findShard(p) == null && !pending.contains(p))
+                .sorted()
+                .forEach(pending::add);
+        return pending;
+    }
 }
@@ -0,0 +1,271 @@
+package geodes.sms.astparser;
+
+import com.google.common.hash.Hasher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *  Splits a large uncompressed JSONL file into blocks of whole lines, read from memory-mapped segments of the
+ *  file, so that the workers decode the lines of their blocks themselves instead of the reader thread.
+ *  Blocks are cut after the first line break following every blockBytes bytes, and given in file order.
+ *  The file is mapped by segments of at most 1 GB, a mapped buffer being limited to 2 GB; a line has
+ *  to fit in a segment. Lines end at \n or \r\n, a lone \r being part of its line; the smaller and compressed
+ *  files are read through a Reader split the same way by lines, so that a line number, e.g., the one a
+ *  checkpoint resumes at, is the same whichever way a file is read. Instances are not thread-safe, their
+ *  blocks are.
+ */
+public class MappedJsonlReader implements Closeable {
+    public static final int DEFAULT_BLOCK_BYTES = 1 << 20;
+
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final int blockBytes;
+
+    private Hasher hasher;
+
+    private MappedByteBuffer segment;
+
+    private long segmentStart;
+
+    /**
+     *  Offset in the file of the next block.
+     */
+    private long position;
+
+    public MappedJsonlReader(Path file, int blockBytes) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.blockBytes = Math.max(1, blockBytes);
+    }
+
+    /**
+     *  Feeds the given hasher with the bytes of every block handed out, so that the file is hashed by the pass
+     *  that extracts it. Reading the blocks to the end of the file completes the hash.
+     */
+    public void setHasher(Hasher hasher) {
+        this.hasher = hasher;
+    }
+
+    /**
+     *  Returns the next block of lines of the file, or null at the end of the file.
+     */
+    public Block nextBlock() throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        if (segment == null || position >= segmentStart + segment.capacity()) {
+            map();
+        }
+        int end = blockEnd();
+        if (end < 0) {
+            // the line at the end of the segment goes on in the next one
+            map();
+            end = blockEnd();
+            if (end < 0) {
+                throw new IOException(String.format("Line longer than %s bytes at offset %s", SEGMENT_BYTES, position));
+            }
+        }
+        int start = (int) (position - segmentStart);
+        ByteBuffer lines = segment.duplicate();
+        lines.position(start).limit(end);
+        position = segmentStart + end;
+        if (hasher != null) {
+            hasher.putBytes(lines.duplicate());
+        }
+        return new Block(lines.slice());
+    }
+
+    /**
+     *  Skips the first lines of the file, e.g., the lines already extracted by a run being resumed.
+     *  Returns the number of lines skipped, fewer than asked when the file has fewer lines.
+     */
+    public long skipLines(long count) throws IOException {
+        long skipped = 0;
+        while (skipped < count && position < size) {
+            if (segment == null || position >= segmentStart + segment.capacity()) {
+                map();
+            }
+            int limit = segment.capacity();
+            int i = (int) (position - segmentStart);
+            while (i < limit && segment.get(i) != '\n') {
+                i++;
+            }
+            if (i == limit && segmentStart + limit < size) {
+                // the line goes on in the next segment
+                if (position == segmentStart) {
+                    throw new IOException(
+                            String.format("Line longer than %s bytes at offset %s", SEGMENT_BYTES, position));
+                }
+                map();
+                continue;
+            }
+            position = segmentStart + Math.min(i + 1, limit);
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     *  Splits the text of a reader into lines like the blocks of a mapped file: at \n only, without the line break
+     *  and the \r before it. Like BufferedReader.lines, fails with an UncheckedIOException when reading fails.
+     */
+    public static Iterator<String> lines(Reader reader) {
+        return new Iterator<>() {
+            private final char[] buffer = new char[1 << 13];
+
+            private int position;
+
+            private int limit;
+
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = readLine();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String line = next;
+                next = null;
+                return line;
+            }
+
+            private String readLine() throws IOException {
+                StringBuilder line = null;
+                while (true) {
+                    if (position == limit) {
+                        limit = reader.read(buffer, 0, buffer.length);
+                        position = 0;
+                        if (limit < 0) {
+                            limit = 0;
+                            return line != null ? stripReturn(line) : null;
+                        }
+                    }
+                    int start = position;
+                    while (position < limit && buffer[position] != '\n') {
+                        position++;
+                    }
+                    if (line == null) {
+                        line = new StringBuilder(position - start);
+                    }
+                    line.append(buffer, start, position - start);
+                    if (position < limit) {
+                        position++;
+                        return stripReturn(line);
+                    }
+                }
+            }
+        };
+    }
+
+    private static String stripReturn(StringBuilder line) {
+        int length = line.length();
+        return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+    }
+
+    /**
+     *  Maps the segment of the file starting at the next block.
+     */
+    private void map() throws IOException {
+        segmentStart = position;
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_BYTES, size - position));
+    }
+
+    /**
+     *  Returns the end in the segment of the next block, or -1 when no line ends in the segment after its start.
+     */
+    private int blockEnd() {
+        int start = (int) (position - segmentStart);
+        int limit = segment.capacity();
+        boolean lastSegment = segmentStart + limit == size;
+        int target = (int) Math.min((long) start + blockBytes, limit);
+        for (int i = target - 1; i < limit; i++) {
+            if (segment.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        if (lastSegment) {
+            return limit;
+        }
+        for (int i = target - 2; i >= start; i--) {
+            if (segment.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        channel.close();
+    }
+
+    /**
+     *  Whole lines of a mapped file, decoded one at a time by the worker that extracts them.
+     */
+    public static class Block {
+        private final ByteBuffer bytes;
+
+        private Block(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         *  Returns the next line of the block without its line break, or null after the last line.
+         *  Like MappedJsonlReader.lines, fails on malformed UTF-8 instead of replacing it.
+         */
+        public String nextLine(CharsetDecoder decoder) {
+            int start = bytes.position();
+            int limit = bytes.limit();
+            if (start >= limit) {
+                return null;
+            }
+            int end = start;
+            while (end < limit && bytes.get(end) != '\n') {
+                end++;
+            }
+            int next = end < limit ? end + 1 : end;
+            if (end > start && bytes.get(end - 1) == '\r') {
+                end--;
+            }
+            ByteBuffer line = bytes.duplicate();
+            line.position(start).limit(end);
+            bytes.position(next);
+            try {
+                CharBuffer chars = decoder.decode(line);
+                return chars.toString();
+            } catch (CharacterCodingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package geodes.sms.astparser;
 
 import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.CallableDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.body.VariableDeclarator;
 import com.github.javaparser.ast.expr.*;
 import com.github.javaparser.ast.nodeTypes.NodeWithIdentifier;
 import com.github.javaparser.ast.nodeTypes.NodeWithSimpleName;
 import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.printer.configuration.DefaultConfigurationOption;
+import com.github.javaparser.printer.configuration.DefaultPrinterConfiguration;
+import com.github.javaparser.printer.configuration.PrinterConfiguration;
 
 import com.github.javaparser.utils.Pair;
 
@@ -15,6 +21,7 @@ import com.google.common.graph.MutableNetwork;
 import geodes.sms.astparser.graph.*;
 
 import java.util.*;
+import java.util.regex.Pattern;
 
 
 public class MethodASTParser {
@@ -24,7 +31,7 @@ public class MethodASTParser {
     MethodASTParser(List<Pair<String, MethodDeclaration>> methods) {
         methods.forEach(p -> {
             Method method = new Method(p.b);
-            methodGraphs.add(new Pair<>(p.a, method.graphBuilder.getGraph()));
+            methodGraphs.add(new Pair<>(p.a, method.getGraph()));
         });
     }
 
@@ -32,25 +39,161 @@ public class MethodASTParser {
         return methodGraphs;
     }
 
-    class Method {
-        private final MethodDeclaration methodData;
+    /**
+     *  Graph of a method or of a constructor.
+     */
+    static class Method {
+        /**
+         *  Matches the elements between parentheses of a call scope, i.e., the arguments of previous method calls.
+         */
+        private static final Pattern CALL_ARGUMENTS = Pattern.compile("\\(.*?\\)");
+
+        /**
+         *  Prints the expressions whose text is matched without the comments attributed to their nodes, so that the
+         *  graphs do not depend on whether the parser attributes the comments, see ParserProfile.
+         */
+        private static final PrinterConfiguration WITHOUT_COMMENTS = new DefaultPrinterConfiguration()
+                .removeOption(new DefaultConfigurationOption(DefaultPrinterConfiguration.ConfigOption.PRINT_COMMENTS));
+
+        private final CallableDeclaration<?> methodData;
 
         private final String methodName;
 
+        private final int methodHash;
+
         private final GraphBuilder graphBuilder;
 
-        Method(MethodDeclaration m) {
+        /**
+         *  Resolver of the qualified names of the types and calls, or null to label them with their text.
+         */
+        private final TypeResolver resolver;
+
+        /**
+         *  Declarations of the source file of the method, null when the method was parsed alone.
+         */
+        private FileContext context;
+
+        /**
+         *  Deadline of the method checked during the construction of its graph, null when unlimited.
+         */
+        private MethodWatchdog.Task deadline;
+
+        /**
+         *  Nodes of the method body collected while walking it once in initMethodIdentifiersNodes,
+         *  in the order a pre-order traversal of the body visits them.
+         */
+        private final List<VariableDeclarator> declarators = new ArrayList<>();
+
+        private final List<MethodCallExpr> calls = new ArrayList<>();
+
+        private final List<AssignExpr> assigns = new ArrayList<>();
+
+        Method(CallableDeclaration<?> m) {
+            this(m, null);
+        }
+
+        /**
+         *  Builds the method graph into the given compact graph instead of a Guava network when it is not null.
+         */
+        Method(CallableDeclaration<?> m, CompactGraph target) {
+            this(m, target, true);
+        }
+
+        /**
+         *  Only creates the graph builder when build is false, so that the stages can be run one at a time.
+         */
+        Method(CallableDeclaration<?> m, CompactGraph target, boolean build) {
+            this(m, target, null, build);
+        }
+
+        /**
+         *  Labels the IMPORT and CALL nodes with the qualified names found by the resolver when it is not null.
+         *  Nodes keep the ids of their textual names, so the edges are the same as without resolution.
+         */
+        Method(CallableDeclaration<?> m, CompactGraph target, TypeResolver resolver, boolean build) {
             methodData = m;
             methodName = m.getNameAsString();
+            methodHash = methodData.hashCode();
+            this.resolver = resolver;
+            if (resolver != null) {
+                resolver.attach(m);
+            }
+
+            graphBuilder = new GraphBuilder(methodName, methodHash, target);
+            if (build) {
+                build(null);
+            }
+        }
 
-            graphBuilder = new GraphBuilder(methodName, methodData.hashCode());
+        /**
+         *  Runs every stage of the graph construction, recording the time spent in each of them
+         *  when metrics are given.
+         */
+        void build(ExtractionMetrics metrics) {
+            if (metrics == null) {
+                initMethodParametersNodes();
+                initMethodIdentifiersNodes();
+                initVarTypeEdges();
+                initCallsScopes();
+                initVarDependency();
+                initCallsArgs();
+                initVarAssigns();
+                initFieldTypeEdges();
+                checkUnconnectedNodes();
+                return;
+            }
+            long time = System.nanoTime();
             initMethodParametersNodes();
+            time = metrics.stage("initMethodParametersNodes", time);
             initMethodIdentifiersNodes();
+            time = metrics.stage("initMethodIdentifiersNodes", time);
             initVarTypeEdges();
+            time = metrics.stage("initVarTypeEdges", time);
             initCallsScopes();
+            time = metrics.stage("initCallsScopes", time);
             initVarDependency();
+            time = metrics.stage("initVarDependency", time);
             initCallsArgs();
+            time = metrics.stage("initCallsArgs", time);
             initVarAssigns();
+            time = metrics.stage("initVarAssigns", time);
+            if (context != null) {
+                initFieldTypeEdges();
+                time = metrics.stage("initFieldTypeEdges", time);
+            }
+            checkUnconnectedNodes();
+            metrics.stage("checkUnconnectedNodes", time);
+        }
+
+        /**
+         *  Limits the size of the graph, see GraphBuilder.setBudget.
+         */
+        void setBudget(GraphBudget budget) {
+            graphBuilder.setBudget(budget);
+        }
+
+        /**
+         *  Qualifies the IMPORT labels with the imports of the source file of the method, and links the fields
+         *  of its class used by the method to their types. Must be set before the graph is built.
+         */
+        void setFileContext(FileContext context) {
+            this.context = context;
+        }
+
+        /**
+         *  Abandons the construction of the graph with a MethodTimeoutException once the deadline expires.
+         */
+        void setDeadline(MethodWatchdog.Task deadline) {
+            this.deadline = deadline;
+        }
+
+        private void checkDeadline() {
+            if (deadline != null) {
+                deadline.checkDeadline();
+            }
+        }
+
+        void checkUnconnectedNodes() {
             graphBuilder.checkUnconnectedNodes();
         }
 
@@ -59,146 +202,199 @@ public class MethodASTParser {
                     .forEach(p -> {
                         graphBuilder.addNode(p.getNameAsString().hashCode(), p.getNameAsString(), NodeTypeEnum.PARAM.name());
                         if (!graphBuilder.nodeExists(p.getType().hashCode())) {
-                            graphBuilder.addNode(p.getTypeAsString().hashCode(), p.getTypeAsString(), NodeTypeEnum.IMPORT.name());
+                            String type = typeLabel(p.getType());
+                            graphBuilder.addNode(p.getTypeAsString().hashCode(), type, NodeTypeEnum.IMPORT.name());
                         }
                         Optional<IdentifierNode> param = graphBuilder.getNode(p.getNameAsString().hashCode());
                         Optional<IdentifierNode> type = graphBuilder.getNode(p.getTypeAsString().hashCode());
                         param.ifPresent(node -> {
                             type.ifPresent(identifierNode -> graphBuilder.addEdge(EdgeTypeEnum.TYPE.name(), node, identifierNode));
-                            Optional<IdentifierNode> method = graphBuilder.getNode(methodData.hashCode());
+                            Optional<IdentifierNode> method = graphBuilder.getNode(methodHash);
                             method.ifPresent(identifierNode -> graphBuilder.addEdge(EdgeTypeEnum.PARAMETER.name(), identifierNode, param.get()));
                         });
                     });
         }
 
+        /**
+         *  Single pre-order walk of the method body: adds the identifier nodes and collects the declarators,
+         *  method calls and assignments that the following stages turn into edges.
+         */
         void initMethodIdentifiersNodes() {
-            Optional<BlockStmt> body = methodData.getBody();
+            Optional<BlockStmt> body = methodData.isMethodDeclaration()
+                    ? methodData.asMethodDeclaration().getBody()
+                    : Optional.of(methodData.asConstructorDeclaration().getBody());
             if (body.isPresent()) {
-                BlockStmt bodyData = body.get();
-                bodyData.findAll(Node.class).stream()
-                        .filter(n -> n instanceof NodeWithIdentifier).distinct()
-                        .filter(i -> !graphBuilder.nodeExists(((NodeWithIdentifier<?>) i).getId().hashCode()))
-                        .forEach(i -> {
-                            if (i.getParentNode().isPresent()) {
-                                switch (i.getParentNode().get().getClass().getSimpleName()) {
-                                    case "ClassOrInterfaceType":
-                                        graphBuilder.addNode(i.toString().hashCode(), i.toString(), NodeTypeEnum.IMPORT.name());
-                                        break;
-                                    case "VariableDeclarator":
-                                        graphBuilder.addNode(i.toString().hashCode(), i.toString(), NodeTypeEnum.VAR.name());
-                                        Optional<IdentifierNode> method = graphBuilder.getNode(methodData.hashCode());
-                                        Optional<IdentifierNode> var = graphBuilder.getNode(i.toString().hashCode());
-                                        if (method.isPresent() && var.isPresent()) {
-                                            graphBuilder.addEdge(EdgeTypeEnum.DEFINES.name(), method.get(), var.get());
-                                        }
-                                        break;
-                                    case "MethodCallExpr":
-                                        graphBuilder.addNode(i.toString().hashCode(), i.toString(), NodeTypeEnum.CALL.name());
-                                        break;
-                                    case "NameExpr":
-                                        graphBuilder.addNode(i.toString().hashCode(), i.toString(), NodeTypeEnum.ID.name());
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            }
-                        });
+                // identifiers that are structurally equal to an already visited one are ignored
+                Set<Node> visitedIdentifiers = new HashSet<>();
+                body.get().walk(Node.TreeTraversal.PREORDER, n -> {
+                    checkDeadline();
+                    if (n instanceof NodeWithIdentifier) {
+                        if (visitedIdentifiers.add(n)) {
+                            addIdentifierNode(n);
+                        }
+                    } else if (n instanceof VariableDeclarator) {
+                        declarators.add((VariableDeclarator) n);
+                    } else if (n instanceof MethodCallExpr) {
+                        calls.add((MethodCallExpr) n);
+                    } else if (n instanceof AssignExpr) {
+                        assigns.add((AssignExpr) n);
+                    }
+                });
             }
         }
 
-        void initVarTypeEdges() {
-            Optional<BlockStmt> body = methodData.getBody();
-            if (body.isPresent()) {
-                BlockStmt bodyData = body.get();
-                bodyData.findAll(VariableDeclarator.class)
-                        .forEach(n -> {
-                            Optional<IdentifierNode> var = graphBuilder.getNode(n.getNameAsString().hashCode());
-                            Optional<IdentifierNode> type = graphBuilder.getNode(n.getTypeAsString().hashCode());
-                            if (var.isPresent() && type.isPresent()) {
-                                graphBuilder.addEdge(EdgeTypeEnum.TYPE.name(), var.get(), type.get());
-                            }
-                        });
+        private void addIdentifierNode(Node i) {
+            if (graphBuilder.nodeExists(((NodeWithIdentifier<?>) i).getId().hashCode()) || i.getParentNode().isEmpty()) {
+                return;
+            }
+            // the text of the node rather than its identifier, which drops the scope of a method reference
+            String name = i.toString(WITHOUT_COMMENTS);
+            switch (i.getParentNode().get().getClass().getSimpleName()) {
+                case "ClassOrInterfaceType":
+                    ClassOrInterfaceType typeName = (ClassOrInterfaceType) i.getParentNode().get();
+                    String type = resolver != null ? resolver.resolveTypeName(typeName)
+                            : context != null ? context.qualifyName(typeName)
+                            : name;
+                    graphBuilder.addNode(name.hashCode(), type, NodeTypeEnum.IMPORT.name());
+                    break;
+                case "VariableDeclarator":
+                    graphBuilder.addNode(name.hashCode(), name, NodeTypeEnum.VAR.name());
+                    Optional<IdentifierNode> method = graphBuilder.getNode(methodHash);
+                    Optional<IdentifierNode> var = graphBuilder.getNode(name.hashCode());
+                    if (method.isPresent() && var.isPresent()) {
+                        graphBuilder.addEdge(EdgeTypeEnum.DEFINES.name(), method.get(), var.get());
+                    }
+                    break;
+                case "MethodCallExpr":
+                    String call = resolver != null
+                            ? resolver.resolveCall((MethodCallExpr) i.getParentNode().get())
+                            : name;
+                    graphBuilder.addNode(name.hashCode(), call, NodeTypeEnum.CALL.name());
+                    break;
+                case "NameExpr":
+                    graphBuilder.addNode(name.hashCode(), name, NodeTypeEnum.ID.name());
+                    break;
+                default:
+                    break;
             }
         }
 
+        void initVarTypeEdges() {
+            declarators.forEach(n -> {
+                checkDeadline();
+                Optional<IdentifierNode> var = graphBuilder.getNode(n.getNameAsString().hashCode());
+                Optional<IdentifierNode> type = graphBuilder.getNode(n.getTypeAsString().hashCode());
+                if (var.isPresent() && type.isPresent()) {
+                    graphBuilder.addEdge(EdgeTypeEnum.TYPE.name(), var.get(), type.get());
+                }
+            });
+        }
+
         void initCallsScopes() {
-            Optional<BlockStmt> body = methodData.getBody();
-            if (body.isPresent()) {
-                BlockStmt bodyData = body.get();
-                bodyData.findAll(MethodCallExpr.class)
-                        .forEach(n -> {
-                            Optional<Expression> scope = n.getScope();
-                            if (scope.isPresent()) {
-                                Expression s = scope.get();
-                                // remove element between parentheses to avoid to match previous
-                                //   method call arguments in the scope of the current method call
-                                List<String> sElement = Arrays.asList(
-                                        s.toString().replaceAll("\\(.*?\\)", "").split("\\."));
-                                String parsedScope = sElement.get(sElement.size() - 1);
-                                Optional<IdentifierNode> call = graphBuilder.getNode(n.getNameAsString().hashCode());
-                                Optional<IdentifierNode> scopeNode = graphBuilder.getNode(parsedScope.hashCode());
-                                if (scopeNode.isPresent() && call.isPresent()) {
-                                    graphBuilder.addEdge(EdgeTypeEnum.SCOPE.name(), call.get(), scopeNode.get());
-                                }
-                            }
-                        });
-            }
+            calls.forEach(n -> {
+                checkDeadline();
+                Optional<Expression> scope = n.getScope();
+                if (scope.isPresent()) {
+                    Expression s = scope.get();
+                    // remove element between parentheses to avoid to match previous
+                    //   method call arguments in the scope of the current method call
+                    CharSequence scopeText = deadline != null ? deadline.guard(s.toString(WITHOUT_COMMENTS))
+                            : s.toString(WITHOUT_COMMENTS);
+                    String[] sElement = CALL_ARGUMENTS.matcher(scopeText).replaceAll("").split("\\.");
+                    String parsedScope = sElement[sElement.length - 1];
+                    Optional<IdentifierNode> call = graphBuilder.getNode(n.getNameAsString().hashCode());
+                    Optional<IdentifierNode> scopeNode = graphBuilder.getNode(parsedScope.hashCode());
+                    if (scopeNode.isPresent() && call.isPresent()) {
+                        graphBuilder.addEdge(EdgeTypeEnum.SCOPE.name(), call.get(), scopeNode.get());
+                    }
+                }
+            });
         }
 
         void initVarDependency() {
-            Optional<BlockStmt> body = methodData.getBody();
-            if (body.isPresent()) {
-                BlockStmt bodyData = body.get();
-                bodyData.findAll(VariableDeclarator.class)
-                        .forEach(n -> {
-                            Optional<Expression> varInit = n.getInitializer();
-                            varInit.ifPresent(expression -> expression.findAll(Node.class).stream()
-                                    .filter(m -> m instanceof NodeWithIdentifier).distinct()
-                                    .filter(m -> ((NodeWithIdentifier<?>) m).getId().hashCode() != n.getNameAsString().hashCode())
-                                    .forEach(m -> {
-                                        Optional<IdentifierNode> var = graphBuilder.getNode(n.getNameAsString().hashCode());
-                                        Optional<IdentifierNode> dep = graphBuilder.getNode(((NodeWithIdentifier<?>) m).getId().hashCode());
-                                        if (var.isPresent() && dep.isPresent()) {
-                                            graphBuilder.addEdge(EdgeTypeEnum.DEPENDS_ON.name(), var.get(), dep.get());
-                                        }
-                                    }));
-
-                        });
-            }
+            declarators.forEach(n -> {
+                checkDeadline();
+                Optional<Expression> varInit = n.getInitializer();
+                Optional<IdentifierNode> var = graphBuilder.getNode(n.getNameAsString().hashCode());
+                if (varInit.isEmpty() || var.isEmpty()) {
+                    return;
+                }
+                int varHash = n.getNameAsString().hashCode();
+                // edges are deduplicated by the graph builder, so repeated identifiers need no distinct()
+                varInit.get().walk(Node.TreeTraversal.PREORDER, m -> {
+                    if (m instanceof NodeWithIdentifier) {
+                        int depHash = ((NodeWithIdentifier<?>) m).getId().hashCode();
+                        if (depHash != varHash) {
+                            graphBuilder.getNode(depHash).ifPresent(dep ->
+                                    graphBuilder.addEdge(EdgeTypeEnum.DEPENDS_ON.name(), var.get(), dep));
+                        }
+                    }
+                });
+            });
         }
 
         void initCallsArgs() {
-            Optional<BlockStmt> body = methodData.getBody();
-            if (body.isPresent()) {
-                BlockStmt bodyData = body.get();
-                bodyData.findAll(MethodCallExpr.class).forEach(n -> {
-                           n.getArguments().stream()
-                                   .filter(m -> m instanceof MethodCallExpr || m instanceof NameExpr)
-                                   .forEach(m -> {
-                                       Optional<IdentifierNode> call = graphBuilder.getNode(n.getNameAsString().hashCode());
-                                       Optional<IdentifierNode> arg = graphBuilder.getNode(((NodeWithSimpleName<?>) m).getNameAsString().hashCode());
-                                       if (call.isPresent() && arg.isPresent()) {
-                                           graphBuilder.addEdge(EdgeTypeEnum.ARG.name(), call.get(), arg.get());
-                                       }
-                                   });
-                        });
-            }
+            calls.forEach(n -> {
+                checkDeadline();
+                n.getArguments().stream()
+                    .filter(m -> m instanceof MethodCallExpr || m instanceof NameExpr)
+                    .forEach(m -> {
+                        Optional<IdentifierNode> call = graphBuilder.getNode(n.getNameAsString().hashCode());
+                        Optional<IdentifierNode> arg = graphBuilder.getNode(((NodeWithSimpleName<?>) m).getNameAsString().hashCode());
+                        if (call.isPresent() && arg.isPresent()) {
+                            graphBuilder.addEdge(EdgeTypeEnum.ARG.name(), call.get(), arg.get());
+                        }
+                    });
+            });
         }
 
         void initVarAssigns() {
-            Optional<BlockStmt> body = methodData.getBody();
-            if (body.isPresent()) {
-                BlockStmt bodyData = body.get();
-                bodyData.findAll(AssignExpr.class).forEach(n -> {
-                    if (n.getTarget() instanceof NameExpr && n.getValue() instanceof MethodCallExpr || n.getValue() instanceof NameExpr) {
-                        Optional<IdentifierNode> var = graphBuilder.getNode(n.getTarget().toString().hashCode());
-                        Optional<IdentifierNode> value = graphBuilder.getNode(((NodeWithSimpleName<?>) n.getValue()).getNameAsString().hashCode());
-                        if (var.isPresent() && value.isPresent()) {
-                            graphBuilder.addEdge(EdgeTypeEnum.DEPENDS_ON.name(), var.get(), value.get());
-                        }
+            assigns.forEach(n -> {
+                checkDeadline();
+                if (n.getTarget() instanceof NameExpr && n.getValue() instanceof MethodCallExpr || n.getValue() instanceof NameExpr) {
+                    Optional<IdentifierNode> var = graphBuilder.getNode(n.getTarget().toString(WITHOUT_COMMENTS).hashCode());
+                    Optional<IdentifierNode> value = graphBuilder.getNode(((NodeWithSimpleName<?>) n.getValue()).getNameAsString().hashCode());
+                    if (var.isPresent() && value.isPresent()) {
+                        graphBuilder.addEdge(EdgeTypeEnum.DEPENDS_ON.name(), var.get(), value.get());
                     }
-                });
+                }
+            });
+        }
+
+        /**
+         *  Adds a TYPE edge from the ID nodes naming a field of the class of the method to the type of the field.
+         *  Only run with a file context: a method parsed alone does not know the fields of its class.
+         */
+        void initFieldTypeEdges() {
+            if (context == null) {
+                return;
+            }
+            context.getFields(methodData).forEach((name, type) -> {
+                Optional<IdentifierNode> field = graphBuilder.getNode(name.hashCode());
+                if (field.isEmpty() || !field.get().getType().equals(NodeTypeEnum.ID.name())) {
+                    return;
+                }
+                int typeHash = type.asString().hashCode();
+                if (!graphBuilder.nodeExists(typeHash)) {
+                    graphBuilder.addNode(typeHash, typeLabel(type), NodeTypeEnum.IMPORT.name());
+                }
+                graphBuilder.getNode(typeHash).ifPresent(t -> graphBuilder.addEdge(EdgeTypeEnum.TYPE.name(), field.get(), t));
+            });
+        }
+
+        private String typeLabel(Type type) {
+            if (resolver != null) {
+                return resolver.resolveType(type);
             }
+            return context != null ? context.qualify(type) : type.asString();
+        }
+
+        MutableNetwork<IdentifierNode, IdentifierRelationEdge> getGraph() {
+            return graphBuilder.getGraph();
+        }
+
+        CompactGraph getCompactGraph() {
+            return graphBuilder.getCompactGraph();
         }
 
         public String toString() {
@@ -0,0 +1,11 @@
+package geodes.sms.astparser;
+
+/**
+ *  Thrown by the deadline checks of a method that exceeded the CPU time given to it by the MethodWatchdog.
+ *  It abandons a method that would be quarantined anyway, so it carries no stack trace.
+ */
+public class MethodTimeoutException extends RuntimeException {
+    public MethodTimeoutException(long limitMillis) {
+        super(String.format("Method exceeded its CPU time limit of %s ms", limitMillis), null, false, false);
+    }
+}
@@ -0,0 +1,229 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.ast.Node;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import geodes.sms.astparser.graph.RecordWriter;
+
+import java.io.Closeable;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Limits the work spent on a single method, so that a pathological record cannot stall a run: the CPU time
+ *  of the worker extracting it, and the number of nodes of its parsed AST.
+ *  A watchdog thread periodically compares the CPU time of every running method with the limit, and marks
+ *  the methods over it as expired. Workers check the mark cooperatively: between the stages of the graph
+ *  construction, in their loops, while the parser reads the source and while the call scopes are matched,
+ *  so that checks cost a volatile read. Parsing is checked as the parser consumes its input, at least every
+ *  GUARD_READ_CHARS characters, and once done: JavaParser has no hook per token, so the time the parser spends
+ *  on the tokens it has already read, e.g., backtracking over them, is only caught once parsing is over.
+ *  A Java source file is parsed under the limit of one method, and quarantined as a whole when over it.
+ *  Methods nested deeply enough to overflow the stack of the recursive visitors are quarantined as well.
+ *  The records of the methods over a limit are written to a quarantine file, in the JSONL format of the
+ *  inputs, so that they can be examined or extracted again with other limits.
+ */
+public class MethodWatchdog implements Closeable {
+    public static final String QUARANTINE_FILE = "quarantine.jsonl";
+
+    public static final String QUARANTINED_TIMEOUT = "quarantinedTimeout";
+
+    public static final String QUARANTINED_AST_NODES = "quarantinedAstNodes";
+
+    public static final String QUARANTINED_STACK_OVERFLOW = "quarantinedStackOverflow";
+
+    private static final int QUARANTINE_BUFFER_BYTES = 1 << 16;
+
+    private static final long MIN_CHECK_MILLIS = 10;
+
+    /**
+     *  Maximum number of characters handed to the parser by one read of a guarded source, far less than the
+     *  4 KB the parser asks for, so that the deadline is also checked while parsing short methods.
+     */
+    static final int GUARD_READ_CHARS = 256;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final boolean cpuTime = threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+
+    private final long limitMillis;
+
+    private final long limitNanos;
+
+    private final int maxAstNodes;
+
+    private final Map<Long, Task> running = new ConcurrentHashMap<>();
+
+    private final ExtractionMetrics metrics;
+
+    private final RecordWriter quarantine;
+
+    private final ScheduledExecutorService checker;
+
+    /**
+     *  A limit of 0 disables the corresponding check. Falls back to the wall-clock time of the methods when the
+     *  JVM does not measure the CPU time of threads. The quarantined methods are only counted when the quarantine
+     *  file is null.
+     */
+    public MethodWatchdog(long limitMillis, int maxAstNodes, Path quarantineFile, ExtractionMetrics metrics)
+            throws IOException {
+        this.limitMillis = limitMillis;
+        this.limitNanos = TimeUnit.MILLISECONDS.toNanos(limitMillis);
+        this.maxAstNodes = maxAstNodes;
+        this.metrics = metrics;
+        quarantine = quarantineFile != null ? new RecordWriter(quarantineFile, QUARANTINE_BUFFER_BYTES) : null;
+        metrics.add(QUARANTINED_TIMEOUT, 0);
+        metrics.add(QUARANTINED_AST_NODES, 0);
+        metrics.add(QUARANTINED_STACK_OVERFLOW, 0);
+        if (limitMillis > 0) {
+            checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("method-watchdog")
+                    .setDaemon(true)
+                    .build());
+            long interval = Math.max(MIN_CHECK_MILLIS, limitMillis / 4);
+            checker.scheduleAtFixedRate(this::check, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            checker = null;
+        }
+    }
+
+    /**
+     *  Deadline of the method extracted by the current thread, to close once the method is done.
+     */
+    public class Task implements AutoCloseable {
+        private final long threadId = Thread.currentThread().getId();
+
+        private final long start = now(threadId);
+
+        private volatile boolean expired = false;
+
+        /**
+         *  Throws a MethodTimeoutException when the method exceeded its CPU time.
+         */
+        public void checkDeadline() {
+            if (expired) {
+                throw new MethodTimeoutException(limitMillis);
+            }
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         *  Checks the deadline whenever the parser reads more of the source, every GUARD_READ_CHARS characters.
+         */
+        public Reader guard(Reader source) {
+            return new FilterReader(source) {
+                @Override
+                public int read(char[] buffer, int offset, int length) throws IOException {
+                    checkDeadline();
+                    return super.read(buffer, offset, Math.min(length, GUARD_READ_CHARS));
+                }
+            };
+        }
+
+        /**
+         *  Checks the deadline whenever a regular expression reads a character of the text.
+         */
+        public CharSequence guard(CharSequence text) {
+            return new CharSequence() {
+                @Override
+                public int length() {
+                    return text.length();
+                }
+
+                @Override
+                public char charAt(int index) {
+                    checkDeadline();
+                    return text.charAt(index);
+                }
+
+                @Override
+                public CharSequence subSequence(int start, int end) {
+                    return guard(text.subSequence(start, end));
+                }
+
+                @Override
+                public String toString() {
+                    return text.toString();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            running.remove(threadId);
+        }
+    }
+
+    /**
+     *  Starts the deadline of a method extracted by the current thread.
+     */
+    public Task start() {
+        Task task = new Task();
+        if (limitMillis > 0) {
+            running.put(task.threadId, task);
+        }
+        return task;
+    }
+
+    /**
+     *  Whether a parsed method has more AST nodes than allowed, counting them only up to the limit.
+     */
+    public boolean exceedsAstNodes(Node method) {
+        return maxAstNodes > 0 && method.stream().limit(maxAstNodes + 1L).count() > maxAstNodes;
+    }
+
+    /**
+     *  Counts a method over a limit and writes its record to the quarantine file, if any.
+     */
+    public void quarantine(String record, String counter) {
+        metrics.increment(counter);
+        if (quarantine == null) {
+            return;
+        }
+        byte[] bytes = (record + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (quarantine) {
+            try {
+                quarantine.write(bytes);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+    }
+
+    private void check() {
+        running.values().forEach(task -> {
+            if (now(task.threadId) - task.start > limitNanos) {
+                task.expired = true;
+            }
+        });
+    }
+
+    private long now(long threadId) {
+        return cpuTime ? threads.getThreadCpuTime(threadId) : System.nanoTime();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        if (quarantine != null) {
+            synchronized (quarantine) {
+                quarantine.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.ParserConfiguration;
+
+/**
+ *  Configurations of the parsers of the workers, which every worker creates once and reuses for all its methods.
+ *  DEFAULT is the default JavaParser configuration. FAST turns off the features the graphs never read: the
+ *  attribution of the comments to the nodes, and the tokens kept for token ranges and lexical preservation.
+ *  The language level validation is kept, since it decides which methods are rejected. No symbol resolver is
+ *  attached by either profile: type resolution goes through TypeResolver, which does not need one.
+ *  The graphs match identifiers and expressions by their text printed without comments, so both
+ *  profiles give the same graphs, as ExtractionPipelineTest checks on methods with comments. The cached graphs
+ *  are still kept apart by profile, see getCacheVariant.
+ */
+public enum ParserProfile {
+    DEFAULT,
+    FAST;
+
+    public ParserConfiguration newConfiguration() {
+        ParserConfiguration configuration = new ParserConfiguration();
+        if (this == FAST) {
+            configuration.setAttributeComments(false)
+                    .setStoreTokens(false)
+                    .setLexicalPreservationEnabled(false);
+        }
+        return configuration;
+    }
+
+    /**
+     *  Variant of the keys of the graphs cached with this profile, null for the keys of the default one.
+     */
+    public String getCacheVariant() {
+        return this == DEFAULT ? null : name().toLowerCase();
+    }
+}
@@ -0,0 +1,99 @@
+package geodes.sms.astparser;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ *  Cheap estimate of the size of the graph of a method, computed on its raw source before it is parsed:
+ *  the number of distinct identifiers, i.e., of the words of the source that are not keywords, comments or
+ *  literals. Like GraphBuilder, identifiers are told apart by their String hash code.
+ *  Every node of a method graph but its parameter types is labelled by such an identifier, while not every
+ *  identifier becomes a node (e.g., field names), so the estimate is an upper bound of the nodes of most
+ *  methods rather than an exact count.
+ */
+public class SourceSizeEstimator {
+    private static final int[] KEYWORDS = Stream.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized",
+            "this", "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null")
+            .mapToInt(String::hashCode)
+            .sorted()
+            .toArray();
+
+    private SourceSizeEstimator() { }
+
+    /**
+     *  Counts the distinct identifiers of a method source, stopping as soon as the count reaches the limit.
+     */
+    public static int distinctIdentifiers(String source, int limit) {
+        // an identifier and its separator take two characters at least
+        int capacity = Math.min(limit, source.length() / 2 + 1);
+        int[] seen = new int[Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1];
+        boolean[] used = new boolean[seen.length];
+        int mask = seen.length - 1;
+        int count = 0;
+        int length = source.length();
+        int i = 0;
+        while (i < length && count < limit) {
+            char c = source.charAt(i);
+            if (Character.isJavaIdentifierStart(c)) {
+                int hash = 0;
+                while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+                    hash = 31 * hash + source.charAt(i++);
+                }
+                if (Arrays.binarySearch(KEYWORDS, hash) >= 0) {
+                    continue;
+                }
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (used[slot] && seen[slot] != hash) {
+                    slot = (slot + 1) & mask;
+                }
+                if (!used[slot]) {
+                    used[slot] = true;
+                    seen[slot] = hash;
+                    count++;
+                }
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                i = skipTo(source, i + 2, "\n");
+            } else if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                i = skipTo(source, i + 2, "*/");
+            } else if (c == '"' || c == '\'') {
+                i = skipLiteral(source, i);
+            } else if (Character.isDigit(c)) {
+                // numbers, including suffixes and hexadecimal digits such as 0xFFL
+                while (i < length && Character.isJavaIdentifierPart(source.charAt(i))) {
+                    i++;
+                }
+            } else {
+                i++;
+            }
+        }
+        return count;
+    }
+
+    private static int skipTo(String source, int from, String end) {
+        int index = source.indexOf(end, from);
+        return index < 0 ? source.length() : index + end.length();
+    }
+
+    /**
+     *  Skips a string, text block or character literal starting at the given quote.
+     */
+    private static int skipLiteral(String source, int start) {
+        char quote = source.charAt(start);
+        if (source.startsWith("\"\"\"", start)) {
+            int i = start + 3;
+            while (i < source.length() && !source.startsWith("\"\"\"", i)) {
+                i += source.charAt(i) == '\\' ? 2 : 1;
+            }
+            return Math.min(source.length(), i + 3);
+        }
+        int i = start + 1;
+        while (i < source.length() && source.charAt(i) != quote && source.charAt(i) != '\n') {
+            i += source.charAt(i) == '\\' ? 2 : 1;
+        }
+        return Math.min(source.length(), i + 1);
+    }
+}
@@ -0,0 +1,121 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.ast.type.TypeParameter;
+import com.github.javaparser.resolution.types.ResolvedType;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.function.Supplier;
+
+/**
+ *  Resolves the types and the method calls of a method to fully qualified names, for one worker thread:
+ *  the symbol solver and its caches are not thread-safe, so every worker owns a resolver.
+ *  Methods are parsed alone, so they are attached to a wrapper class in a compilation unit without imports,
+ *  which makes the resolution of a type depend on its text only: only primitive types, types of java.lang
+ *  and types written with their qualified name in the source resolve, e.g., List stays List even when the
+ *  file of the method imports java.util.List. The names of the types are thus kept in a
+ *  bounded cache, shared by all the resolvers of a run, so that common types are only resolved once.
+ *  Types and calls that cannot be resolved keep their textual name.
+ */
+public class TypeResolver {
+    private static final String WRAPPER_CLASS = "MethodWrapper";
+
+    private final JavaSymbolSolver symbolSolver = new JavaSymbolSolver(new ReflectionTypeSolver());
+
+    private final Cache<String, String> typeNames;
+
+    public TypeResolver(Cache<String, String> typeNames) {
+        this.typeNames = typeNames;
+    }
+
+    /**
+     *  Bounded cache of the fully qualified names of the types, by their text, to share between resolvers.
+     */
+    public static Cache<String, String> newCache(long maxEntries) {
+        return CacheBuilder.newBuilder().maximumSize(maxEntries).recordStats().build();
+    }
+
+    /**
+     *  Attaches a parsed method to a compilation unit configured with the symbol solver,
+     *  so that its nodes can be resolved.
+     */
+    public void attach(CallableDeclaration<?> method) {
+        if (method.findCompilationUnit().isPresent()) {
+            return;
+        }
+        CompilationUnit cu = new CompilationUnit();
+        cu.addClass(WRAPPER_CLASS).addMember(method);
+        symbolSolver.inject(cu);
+    }
+
+    /**
+     *  Qualified name of a type, with its type arguments and array brackets, e.g., java.util.List<java.lang.String>.
+     */
+    public String resolveType(Type type) {
+        String text = type.asString();
+        return lookup(type, text, () -> type.resolve().describe());
+    }
+
+    /**
+     *  Qualified name of the type named by a class or interface type, without its type arguments.
+     */
+    public String resolveTypeName(ClassOrInterfaceType type) {
+        String text = type.getNameWithScope();
+        return lookup(type, text, () -> {
+            ResolvedType resolved = type.resolve();
+            return resolved.isReferenceType() ? resolved.asReferenceType().getQualifiedName() : resolved.describe();
+        });
+    }
+
+    /**
+     *  Qualified name of the method a call invokes, e.g., java.lang.String.length, or the name of the call when
+     *  it cannot be resolved. Calls depend on the types of their scope and arguments and are not cached.
+     */
+    public String resolveCall(MethodCallExpr call) {
+        try {
+            return call.resolve().getQualifiedName();
+        } catch (RuntimeException e) {
+            return call.getNameAsString();
+        }
+    }
+
+    private String lookup(Type type, String text, Supplier<String> resolve) {
+        if (dependsOnContext(type)) {
+            return text;
+        }
+        String name = typeNames.getIfPresent(text);
+        if (name == null) {
+            try {
+                name = resolve.get();
+            } catch (RuntimeException e) {
+                name = text;
+            }
+            typeNames.put(text, name);
+        }
+        return name;
+    }
+
+    /**
+     *  Whether the resolution of a type depends on more than its text: when it refers to a type parameter
+     *  of the method or constructor, or when it is declared in a local or anonymous class of the method body.
+     */
+    private static boolean dependsOnContext(Type type) {
+        return type.findAncestor(CallableDeclaration.class)
+                .map(m -> ((CallableDeclaration<?>) m).getTypeParameters().stream()
+                        .map(TypeParameter::getNameAsString)
+                        .anyMatch(p -> type.findAll(ClassOrInterfaceType.class).stream()
+                                .anyMatch(t -> t.getNameAsString().equals(p))))
+                .orElse(false)
+                || type.findAncestor(TypeDeclaration.class)
+                        .filter(t -> !t.getNameAsString().equals(WRAPPER_CLASS))
+                        .isPresent();
+    }
+}
@@ -0,0 +1,133 @@
+package geodes.sms.astparser.graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ *  Reads the columns written by GraphToBinary through memory-mapped buffers.
+ *  The int columns are exposed as read-only little-endian IntBuffer views over the mapped files,
+ *  so they can be handed to training code without copying.
+ *  Each column file must be smaller than 2 GB, the limit of a single mapping.
+ */
+public class BinaryGraphReader {
+    private final IntBuffer graphNodes;
+
+    private final IntBuffer graphEdges;
+
+    private final IntBuffer nodeTypes;
+
+    private final IntBuffer nodeLabels;
+
+    private final IntBuffer edgeTypes;
+
+    private final IntBuffer edgeSources;
+
+    private final IntBuffer edgeTargets;
+
+    private final IntBuffer labelOffsets;
+
+    private final ByteBuffer labelStrings;
+
+    /**
+     *  Index of the first node and first edge of every graph, computed on open from the per-graph counts.
+     */
+    private final long[] firstNodes;
+
+    private final long[] firstEdges;
+
+    public BinaryGraphReader(String dir) throws IOException {
+        graphNodes = mapInts(Paths.get(dir, GraphToBinary.GRAPH_NODES));
+        graphEdges = mapInts(Paths.get(dir, GraphToBinary.GRAPH_EDGES));
+        nodeTypes = mapInts(Paths.get(dir, GraphToBinary.NODE_TYPES));
+        nodeLabels = mapInts(Paths.get(dir, GraphToBinary.NODE_LABELS));
+        edgeTypes = mapInts(Paths.get(dir, GraphToBinary.EDGE_TYPES));
+        edgeSources = mapInts(Paths.get(dir, GraphToBinary.EDGE_SOURCES));
+        edgeTargets = mapInts(Paths.get(dir, GraphToBinary.EDGE_TARGETS));
+        labelOffsets = mapInts(Paths.get(dir, GraphToBinary.LABEL_OFFSETS));
+        labelStrings = map(Paths.get(dir, GraphToBinary.LABEL_STRINGS), 1);
+
+        firstNodes = prefixSums(graphNodes);
+        firstEdges = prefixSums(graphEdges);
+    }
+
+    private static ByteBuffer map(Path path, int elementBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            long count = mapped.getLong(0);
+            mapped.position(GraphToBinary.HEADER_BYTES);
+            ByteBuffer data = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (data.remaining() < count * elementBytes) {
+                throw new IOException(String.format("Truncated column %s: %s elements expected", path, count));
+            }
+            data.limit(Math.toIntExact(count * elementBytes));
+            return data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static IntBuffer mapInts(Path path) throws IOException {
+        return map(path, Integer.BYTES).asIntBuffer();
+    }
+
+    private static long[] prefixSums(IntBuffer counts) {
+        long[] sums = new long[counts.limit() + 1];
+        for (int g = 0; g < counts.limit(); g++) {
+            sums[g + 1] = sums[g] + counts.get(g);
+        }
+        return sums;
+    }
+
+    public int getGraphCount() { return graphNodes.limit(); }
+
+    public int getNodeCount(int graph) { return graphNodes.get(graph); }
+
+    public int getEdgeCount(int graph) { return graphEdges.get(graph); }
+
+    public long getFirstNode(int graph) { return firstNodes[graph]; }
+
+    public long getFirstEdge(int graph) { return firstEdges[graph]; }
+
+    public IntBuffer getNodeTypes() { return nodeTypes.duplicate(); }
+
+    public IntBuffer getNodeLabels() { return nodeLabels.duplicate(); }
+
+    public IntBuffer getEdgeTypes() { return edgeTypes.duplicate(); }
+
+    public IntBuffer getEdgeSources() { return edgeSources.duplicate(); }
+
+    public IntBuffer getEdgeTargets() { return edgeTargets.duplicate(); }
+
+    public int getLabelCount() { return labelOffsets.limit() - 1; }
+
+    public String getLabel(int id) {
+        int start = labelOffsets.get(id);
+        int end = labelOffsets.get(id + 1);
+        byte[] bytes = new byte[end - start];
+        labelStrings.duplicate().position(start).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     *  Copies one graph of the outputs into the given compact graph, e.g., to inspect a single method.
+     */
+    public CompactGraph readGraph(int graph, CompactGraph target) {
+        target.clear();
+        int firstNode = Math.toIntExact(firstNodes[graph]);
+        for (int n = 0; n < getNodeCount(graph); n++) {
+            target.addNode(getLabel(nodeLabels.get(firstNode + n)), (byte) nodeTypes.get(firstNode + n));
+        }
+        int firstEdge = Math.toIntExact(firstEdges[graph]);
+        for (int e = 0; e < getEdgeCount(graph); e++) {
+            target.addEdge((byte) edgeTypes.get(firstEdge + e), edgeSources.get(firstEdge + e), edgeTargets.get(firstEdge + e));
+        }
+        return target;
+    }
+}
@@ -0,0 +1,292 @@
+package geodes.sms.astparser.graph;
+
+import com.google.common.graph.Network;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Primitive representation of a method graph, meant to be filled, exported and cleared for every method.
+ *  Nodes are the ints 0..nodeCount-1 in insertion order, their labels are ids in an interned label table
+ *  and their types are NodeTypeEnum ids.
+ *  Edges are kept in insertion order as parallel arrays of EdgeTypeEnum ids, source and target nodes.
+ *  The arrays grow as needed and are kept on clear(), so a reused instance stops allocating once it has
+ *  seen the largest graph of a run.
+ */
+public class CompactGraph {
+    private static final int DEFAULT_NODES = 64;
+
+    private static final int DEFAULT_EDGES = 128;
+
+    private static final long NO_EDGE = -1L;
+
+    private final List<String> labels = new ArrayList<>();
+
+    private final Map<String, Integer> labelIds = new HashMap<>();
+
+    private int nodeCount = 0;
+
+    private int[] nodeLabels;
+
+    private byte[] nodeTypes;
+
+    private int[] nodeDegrees;
+
+    private int edgeCount = 0;
+
+    private byte[] edgeTypes;
+
+    private int[] edgeSources;
+
+    private int[] edgeTargets;
+
+    /**
+     *  Open-addressing set of the (type, source, target) keys of the edges, used to reject duplicates.
+     */
+    private long[] edgeKeys;
+
+    public CompactGraph() {
+        this(DEFAULT_NODES, DEFAULT_EDGES);
+    }
+
+    public CompactGraph(int expectedNodes, int expectedEdges) {
+        nodeLabels = new int[Math.max(1, expectedNodes)];
+        nodeTypes = new byte[nodeLabels.length];
+        nodeDegrees = new int[nodeLabels.length];
+        edgeTypes = new byte[Math.max(1, expectedEdges)];
+        edgeSources = new int[edgeTypes.length];
+        edgeTargets = new int[edgeTypes.length];
+        edgeKeys = new long[tableSize(edgeTypes.length)];
+        Arrays.fill(edgeKeys, NO_EDGE);
+    }
+
+    public void clear() {
+        labels.clear();
+        labelIds.clear();
+        nodeCount = 0;
+        if (edgeCount > 0) {
+            Arrays.fill(edgeKeys, NO_EDGE);
+        }
+        edgeCount = 0;
+    }
+
+    /**
+     *  Clears this graph and copies the nodes and edges of a network built by GraphBuilder into it,
+     *  keeping the iteration order of the network.
+     */
+    public CompactGraph load(Network<IdentifierNode, IdentifierRelationEdge> network) {
+        clear();
+        network.nodes().forEach(n -> addNode(n.getLabel(), NodeTypeEnum.valueOf(n.getType())));
+        network.edges().forEach(e -> addEdge(
+                EdgeTypeEnum.valueOf(e.getValue()),
+                e.getSourceNode().getIdCount(),
+                e.getTargetNode().getIdCount()));
+        return this;
+    }
+
+    public CompactGraph copy() {
+        return copyTo(new CompactGraph(nodeCount, edgeCount));
+    }
+
+    /**
+     *  Clears the target graph and copies the nodes and edges of this graph into it.
+     */
+    public CompactGraph copyTo(CompactGraph target) {
+        target.clear();
+        for (int n = 0; n < nodeCount; n++) {
+            target.addNode(getNodeLabel(n), nodeTypes[n]);
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            target.addEdge(edgeTypes[e], edgeSources[e], edgeTargets[e]);
+        }
+        return target;
+    }
+
+    /**
+     *  Serializes the graph as its node and edge counts, then (type, label) for every node
+     *  and (type, source, target) for every edge.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(nodeCount);
+        out.writeInt(edgeCount);
+        for (int n = 0; n < nodeCount; n++) {
+            out.writeByte(nodeTypes[n]);
+            out.writeUTF(getNodeLabel(n));
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            out.writeByte(edgeTypes[e]);
+            out.writeInt(edgeSources[e]);
+            out.writeInt(edgeTargets[e]);
+        }
+    }
+
+    /**
+     *  Clears this graph and reads into it a graph serialized by writeTo.
+     */
+    public CompactGraph readFrom(DataInput in) throws IOException {
+        clear();
+        int nodes = in.readInt();
+        int edges = in.readInt();
+        for (int n = 0; n < nodes; n++) {
+            byte type = in.readByte();
+            addNode(in.readUTF(), type);
+        }
+        for (int e = 0; e < edges; e++) {
+            addEdge(in.readByte(), in.readInt(), in.readInt());
+        }
+        return this;
+    }
+
+    public int addNode(String label, NodeTypeEnum type) {
+        return addNode(label, (byte) type.getId());
+    }
+
+    int addNode(String label, byte type) {
+        if (nodeCount == nodeLabels.length) {
+            int capacity = nodeCount * 2;
+            nodeLabels = Arrays.copyOf(nodeLabels, capacity);
+            nodeTypes = Arrays.copyOf(nodeTypes, capacity);
+            nodeDegrees = Arrays.copyOf(nodeDegrees, capacity);
+        }
+        nodeLabels[nodeCount] = internLabel(label);
+        nodeTypes[nodeCount] = type;
+        nodeDegrees[nodeCount] = 0;
+        return nodeCount++;
+    }
+
+    private int internLabel(String label) {
+        Integer id = labelIds.get(label);
+        if (id == null) {
+            id = labels.size();
+            labels.add(label);
+            labelIds.put(label, id);
+        }
+        return id;
+    }
+
+    /**
+     *  Adds an edge unless an edge with the same relation already connects the two nodes.
+     *  Returns whether the edge was added.
+     */
+    public boolean addEdge(EdgeTypeEnum relation, int source, int target) {
+        return addEdge((byte) relation.getId(), source, target);
+    }
+
+    boolean addEdge(byte relation, int source, int target) {
+        if (source < 0 || source >= nodeCount || target < 0 || target >= nodeCount) {
+            throw new IllegalArgumentException(String.format("Unknown edge end: %s -> %s", source, target));
+        }
+        if (!insertEdgeKey(edgeKey(relation, source, target))) {
+            return false;
+        }
+        if (edgeCount == edgeTypes.length) {
+            int capacity = edgeCount * 2;
+            edgeTypes = Arrays.copyOf(edgeTypes, capacity);
+            edgeSources = Arrays.copyOf(edgeSources, capacity);
+            edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+        }
+        edgeTypes[edgeCount] = relation;
+        edgeSources[edgeCount] = source;
+        edgeTargets[edgeCount] = target;
+        edgeCount++;
+        nodeDegrees[source]++;
+        nodeDegrees[target]++;
+        return true;
+    }
+
+    public boolean edgeExists(EdgeTypeEnum relation, int source, int target) {
+        long key = edgeKey((byte) relation.getId(), source, target);
+        int mask = edgeKeys.length - 1;
+        for (int slot = mix(key) & mask; edgeKeys[slot] != NO_EDGE; slot = (slot + 1) & mask) {
+            if (edgeKeys[slot] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean insertEdgeKey(long key) {
+        if ((edgeCount + 1) * 2 > edgeKeys.length) {
+            rehashEdgeKeys(edgeKeys.length * 2);
+        }
+        int mask = edgeKeys.length - 1;
+        int slot = mix(key) & mask;
+        while (edgeKeys[slot] != NO_EDGE) {
+            if (edgeKeys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        edgeKeys[slot] = key;
+        return true;
+    }
+
+    private void rehashEdgeKeys(int size) {
+        edgeKeys = new long[size];
+        Arrays.fill(edgeKeys, NO_EDGE);
+        int mask = size - 1;
+        for (int e = 0; e < edgeCount; e++) {
+            long key = edgeKey(edgeTypes[e], edgeSources[e], edgeTargets[e]);
+            int slot = mix(key) & mask;
+            while (edgeKeys[slot] != NO_EDGE) {
+                slot = (slot + 1) & mask;
+            }
+            edgeKeys[slot] = key;
+        }
+    }
+
+    private static long edgeKey(byte relation, int source, int target) {
+        return ((long) source << 35) | ((long) target << 6) | relation;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSize(int expectedEdges) {
+        return Integer.highestOneBit(Math.max(2, expectedEdges) * 2 - 1) << 1;
+    }
+
+    public int getNodeCount() { return nodeCount; }
+
+    public int getEdgeCount() { return edgeCount; }
+
+    public int getNodeLabelId(int node) { return nodeLabels[node]; }
+
+    public String getNodeLabel(int node) { return labels.get(nodeLabels[node]); }
+
+    public byte getNodeType(int node) { return nodeTypes[node]; }
+
+    public int getNodeDegree(int node) { return nodeDegrees[node]; }
+
+    public byte getEdgeType(int edge) { return edgeTypes[edge]; }
+
+    public int getEdgeSource(int edge) { return edgeSources[edge]; }
+
+    public int getEdgeTarget(int edge) { return edgeTargets[edge]; }
+
+    public int getLabelCount() { return labels.size(); }
+
+    public String getLabel(int id) { return labels.get(id); }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("graph {\n");
+        for (int n = 0; n < nodeCount; n++) {
+            sb.append(String.format("\tnode: %s / %s (id: %s)\n", getNodeLabel(n), NodeTypeEnum.values()[nodeTypes[n]], n));
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            sb.append(String.format("\n\tedge: %s --%s-> %s",
+                    getNodeLabel(edgeSources[e]), EdgeTypeEnum.values()[edgeTypes[e]], getNodeLabel(edgeTargets[e])));
+        }
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+}
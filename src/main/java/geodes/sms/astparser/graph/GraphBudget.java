@@ -0,0 +1,53 @@
+package geodes.sms.astparser.graph;
+
+/**
+ *  Limits on the size of a method graph. A graph is only kept while it has less nodes than maxNodes
+ *  and less edges than maxEdges, so that GraphBuilder can stop building a method as soon as it reaches
+ *  one of them. maxIdentifiers bounds the number of distinct identifiers estimated from the source of
+ *  a method before it is parsed. A limit of 0 disables the corresponding check.
+ */
+public class GraphBudget {
+    public static final GraphBudget UNLIMITED = new GraphBudget(0, 0, 0);
+
+    private final int maxNodes;
+
+    private final int maxEdges;
+
+    private final int maxIdentifiers;
+
+    public GraphBudget(int maxNodes, int maxEdges) {
+        this(maxNodes, maxEdges, 0);
+    }
+
+    public GraphBudget(int maxNodes, int maxEdges, int maxIdentifiers) {
+        this.maxNodes = maxNodes;
+        this.maxEdges = maxEdges;
+        this.maxIdentifiers = maxIdentifiers;
+    }
+
+    public int getMaxNodes() { return maxNodes; }
+
+    public int getMaxEdges() { return maxEdges; }
+
+    public int getMaxIdentifiers() { return maxIdentifiers; }
+
+    public boolean fits(CompactGraph graph) {
+        return (maxNodes <= 0 || graph.getNodeCount() < maxNodes) && (maxEdges <= 0 || graph.getEdgeCount() < maxEdges);
+    }
+
+    public boolean exceedsEstimate(int identifiers) {
+        return maxIdentifiers > 0 && identifiers >= maxIdentifiers;
+    }
+
+    void checkNodes(int nodes) {
+        if (maxNodes > 0 && nodes >= maxNodes) {
+            throw new GraphBudgetExceededException(GraphBudgetExceededException.NODES, maxNodes);
+        }
+    }
+
+    void checkEdges(int edges) {
+        if (maxEdges > 0 && edges >= maxEdges) {
+            throw new GraphBudgetExceededException(GraphBudgetExceededException.EDGES, maxEdges);
+        }
+    }
+}
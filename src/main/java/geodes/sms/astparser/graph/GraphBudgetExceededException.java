@@ -0,0 +1,25 @@
+package geodes.sms.astparser.graph;
+
+/**
+ *  Thrown by GraphBuilder when the graph of a method reaches its node or edge budget.
+ *  It stops the construction of a graph that would be dropped anyway, so it carries no stack trace.
+ */
+public class GraphBudgetExceededException extends RuntimeException {
+    public static final String NODES = "nodes";
+
+    public static final String EDGES = "edges";
+
+    private final String budget;
+
+    public GraphBudgetExceededException(String budget, int limit) {
+        super(String.format("Graph reached the budget of %s %s", limit, budget), null, false, false);
+        this.budget = budget;
+    }
+
+    /**
+     *  The exceeded budget, NODES or EDGES.
+     */
+    public String getBudget() {
+        return budget;
+    }
+}
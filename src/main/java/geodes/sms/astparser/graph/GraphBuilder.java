@@ -3,6 +3,8 @@ package geodes.sms.astparser.graph;
 import com.google.common.graph.MutableNetwork;
 import com.google.common.graph.NetworkBuilder;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.logging.Logger;
 
@@ -12,58 +14,110 @@ public class GraphBuilder {
      *  Each node is represented by the IdentifierNode abstract type and contains a label and a feature.
      *  Each edge is directed and has a source node and a target node.
      *  The edges all have a label which represents the relation between two identifiers.
+     *  The network is null when the builder targets a CompactGraph instead.
      */
     private final MutableNetwork<IdentifierNode, IdentifierRelationEdge> graph;
 
+    private final CompactGraph compactGraph;
+
+    /**
+     *  Index of the graph nodes by identifier, kept next to the network so that node lookups and inserts
+     *  do not scan every node of the graph.
+     */
+    private final Map<Integer, IdentifierNode> nodesById = new HashMap<>();
+
     private final int rootNodeId;
 
     private int nodeCounter = 0;
 
+    private GraphBudget budget = GraphBudget.UNLIMITED;
+
     private final Logger logger;
 
     public GraphBuilder(String methodName, int hash) {
+        this(methodName, hash, null);
+    }
+
+    /**
+     *  Builds the graph directly into the given compact graph, which is cleared first,
+     *  instead of allocating a Guava network for the method.
+     */
+    public GraphBuilder(String methodName, int hash, CompactGraph target) {
         logger = Logger.getLogger(GraphBuilder.class.getName());
         logger.fine("Building graph for method: " + methodName);
 
-        graph = NetworkBuilder.directed()
-                .allowsSelfLoops(true)
-                .allowsParallelEdges(true)
-                .build();
-        graph.addNode(new IdentifierNode(hash, nodeCounter, methodName, NodeTypeEnum.METHOD.name()));
-        nodeCounter++;
+        if (target != null) {
+            target.clear();
+            graph = null;
+        } else {
+            graph = NetworkBuilder.directed()
+                    .allowsSelfLoops(true)
+                    .allowsParallelEdges(true)
+                    .build();
+        }
+        compactGraph = target;
         rootNodeId = hash;
+        addNode(hash, methodName, NodeTypeEnum.METHOD.name());
+    }
+
+    /**
+     *  Limits the size of the graph: adding a node or an edge that reaches the budget throws
+     *  a GraphBudgetExceededException, so that the method is abandoned before its graph is complete.
+     */
+    public void setBudget(GraphBudget budget) {
+        this.budget = budget;
     }
 
     public Optional<IdentifierNode> getNode(int hash) {
-        return graph.nodes().stream()
-                .filter(n -> n.getId() == hash)
-                .findAny();
+        return Optional.ofNullable(nodesById.get(hash));
     }
 
     public boolean nodeExists(int hash) {
-        return graph.nodes().stream().anyMatch(n -> n.getId() == hash);
+        return nodesById.containsKey(hash);
     }
 
     public void addNode(int hash, String name, String type) {
         if (!nodeExists(hash)) {
-            graph.addNode(new IdentifierNode(hash, nodeCounter, name, type));
+            IdentifierNode node = new IdentifierNode(hash, nodeCounter, name, type);
+            if (compactGraph != null) {
+                compactGraph.addNode(name, NodeTypeEnum.valueOf(type));
+            } else {
+                graph.addNode(node);
+            }
+            nodesById.put(hash, node);
             nodeCounter++;
+            budget.checkNodes(nodeCounter);
         }
     }
 
     public boolean edgeExists(IdentifierNode sourceNode, IdentifierNode targetNode, String type) {
+        if (compactGraph != null) {
+            return compactGraph.edgeExists(EdgeTypeEnum.valueOf(type), sourceNode.getIdCount(), targetNode.getIdCount());
+        }
         return graph.edgesConnecting(sourceNode, targetNode).stream().anyMatch(r -> r.getValue().equals(type));
     }
 
     public void addEdge(String relation, IdentifierNode source, IdentifierNode target) {
-        if (!edgeExists(source, target, relation)) {
+        if (compactGraph != null) {
+            if (compactGraph.addEdge(EdgeTypeEnum.valueOf(relation), source.getIdCount(), target.getIdCount())) {
+                budget.checkEdges(compactGraph.getEdgeCount());
+            }
+        } else if (!edgeExists(source, target, relation)) {
             graph.addEdge(source, target, new IdentifierRelationEdge(relation, source, target));
+            budget.checkEdges(graph.edges().size());
         }
     }
 
     public void checkUnconnectedNodes() {
         Optional<IdentifierNode> method = getNode(rootNodeId);
-        if (method.isPresent()) {
+        if (method.isPresent() && compactGraph != null) {
+            for (int n = 0; n < compactGraph.getNodeCount(); n++) {
+                if (compactGraph.getNodeDegree(n) == 0
+                        && compactGraph.addEdge(EdgeTypeEnum.CONTAINS, method.get().getIdCount(), n)) {
+                    budget.checkEdges(compactGraph.getEdgeCount());
+                }
+            }
+        } else if (method.isPresent()) {
             graph.nodes().forEach(n -> {
                 if (graph.inEdges(n).isEmpty() && graph.outEdges(n).isEmpty()) {
                     addEdge(EdgeTypeEnum.CONTAINS.name(), method.get(), n);
@@ -76,7 +130,14 @@ public class GraphBuilder {
         return graph;
     }
 
+    public CompactGraph getCompactGraph() {
+        return compactGraph;
+    }
+
     public String printGraph() {
+        if (compactGraph != null) {
+            return compactGraph.toString();
+        }
         StringBuilder sb = new StringBuilder();
         sb.append("graph {\n");
         graph.nodes().forEach(n -> sb.append(String.format("\tnode: %s (id: %s)\n", n, n.getId())));
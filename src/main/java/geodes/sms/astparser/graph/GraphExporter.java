@@ -0,0 +1,28 @@
+package geodes.sms.astparser.graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+public interface GraphExporter extends Closeable {
+    /**
+     *  Appends the records of one method graph to the exported outputs.
+     */
+    void writeGraph(CompactGraph graph);
+
+    /**
+     *  Writes the buffered records of every output file to disk.
+     */
+    void flush() throws IOException;
+
+    /**
+     *  Writes the buffered records and forces every output file to the storage device, e.g., before recording
+     *  their lengths in a checkpoint.
+     */
+    void sync() throws IOException;
+
+    /**
+     *  Length in bytes of every output file, by file name, buffered records included.
+     */
+    Map<String, Long> getPositions();
+}
@@ -0,0 +1,88 @@
+package geodes.sms.astparser.graph;
+
+/**
+ *  Canonical 64-bit hash of a method graph, computed with Weisfeiler-Lehman color refinement: every node
+ *  starts with a color derived from its type and, unless labels are ignored, its label, then for a number of
+ *  iterations takes a new color from its color and the multiset of the (relation, direction, color) of its
+ *  neighbours. The hash combines the final colors, so it does not depend on the order of the nodes and edges:
+ *  isomorphic graphs always get the same hash, while different graphs get different hashes except for
+ *  collisions and for the rare graphs that color refinement cannot tell apart.
+ *  Multisets are combined by summing mixed values, so no sort is needed.
+ */
+public class GraphHasher {
+    public static final int DEFAULT_ITERATIONS = 3;
+
+    private final int iterations;
+
+    private final boolean labels;
+
+    private long[] colors = new long[64];
+
+    private long[] next = new long[64];
+
+    /**
+     *  Ignoring labels makes graphs that only differ by their identifiers, e.g., getters of different fields,
+     *  duplicates of each other. Instances reuse their buffers and are not thread-safe.
+     */
+    public GraphHasher(int iterations, boolean labels) {
+        this.iterations = iterations;
+        this.labels = labels;
+    }
+
+    public long hash(CompactGraph graph) {
+        int nodes = graph.getNodeCount();
+        int edges = graph.getEdgeCount();
+        if (colors.length < nodes) {
+            colors = new long[nodes];
+            next = new long[nodes];
+        }
+        for (int n = 0; n < nodes; n++) {
+            long color = mix(graph.getNodeType(n) + 1);
+            if (labels) {
+                color = mix(color ^ labelHash(graph.getNodeLabel(n)));
+            }
+            colors[n] = color;
+        }
+        for (int i = 0; i < iterations; i++) {
+            for (int n = 0; n < nodes; n++) {
+                next[n] = colors[n] * 0x9E3779B97F4A7C15L;
+            }
+            for (int e = 0; e < edges; e++) {
+                int source = graph.getEdgeSource(e);
+                int target = graph.getEdgeTarget(e);
+                long relation = (graph.getEdgeType(e) + 1L) << 1;
+                next[source] += mix(colors[target] ^ mix(relation));
+                next[target] += mix(colors[source] ^ mix(relation | 1));
+            }
+            for (int n = 0; n < nodes; n++) {
+                colors[n] = mix(next[n]);
+            }
+        }
+        long hash = mix(((long) nodes << 32) ^ edges);
+        for (int n = 0; n < nodes; n++) {
+            hash += mix(colors[n]);
+        }
+        return mix(hash);
+    }
+
+    private static long labelHash(String label) {
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int c = 0; c < label.length(); c++) {
+            hash = (hash ^ label.charAt(c)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     *  Finalizer of MurmurHash3, which spreads every input bit over the whole output.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,166 @@
+package geodes.sms.astparser.graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Binary index of the exported graphs, giving for every graph the byte offset of its first record in every
+ *  output file, the methods file included, and its number of nodes and edges, so that GraphIndexReader finds
+ *  one graph without reading the graphs before it.
+ *  The file starts with the number of graphs it holds as a little-endian int64, written on close, then the
+ *  number of indexed files as an int32 and their names, each as an int32 length and its UTF-8 bytes.
+ *  It goes on with one fixed-size record per graph: one little-endian int64 offset per file, in the order
+ *  of the names, then the node count and the edge count as int32 values.
+ *  Offsets are positions in uncompressed files, so compressed outputs cannot be indexed.
+ */
+public class GraphIndex implements Closeable {
+    public static final String INDEX_FILE = "graph-index.bin";
+
+    static final int HEADER_BYTES = Long.BYTES;
+
+    private final Path path;
+
+    private final List<String> files;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer;
+
+    /**
+     *  Offset of the first graph record, after the names of the files.
+     */
+    private final long recordsStart;
+
+    private final int recordBytes;
+
+    private long count = 0;
+
+    /**
+     *  Opens the index of the given files, truncated or, when append is set, positioned after the graphs it
+     *  already holds, whose count is then derived from the file size. The files of an index being appended to
+     *  must be the ones it was created with.
+     */
+    public GraphIndex(Path path, Collection<String> files, int bufferBytes, boolean append) throws IOException {
+        this.path = path;
+        this.files = new ArrayList<>(files);
+        recordBytes = recordBytes(this.files.size());
+        ByteBuffer names = encodeNames(this.files);
+        recordsStart = HEADER_BYTES + names.remaining();
+        buffer = ByteBuffer.allocateDirect(Math.max(recordBytes, bufferBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        if (append) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            if (channel.size() > 0) {
+                ByteBuffer existing = ByteBuffer.allocate(names.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(existing, HEADER_BYTES);
+                existing.flip();
+                if (!existing.equals(names)) {
+                    channel.close();
+                    throw new IOException("The graph index " + path + " does not index the files " + files);
+                }
+                count = Math.max(0, channel.size() - recordsStart) / recordBytes;
+            }
+        } else {
+            channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        channel.truncate(recordsStart + count * recordBytes);
+        channel.write(names, HEADER_BYTES);
+        channel.position(recordsStart + count * recordBytes);
+    }
+
+    static int recordBytes(int files) {
+        return files * Long.BYTES + 2 * Integer.BYTES;
+    }
+
+    private static ByteBuffer encodeNames(List<String> files) {
+        List<byte[]> names = new ArrayList<>();
+        int bytes = Integer.BYTES;
+        for (String file : files) {
+            byte[] name = file.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            bytes += Integer.BYTES + name.length;
+        }
+        ByteBuffer encoded = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        encoded.putInt(names.size());
+        for (byte[] name : names) {
+            encoded.putInt(name.length).put(name);
+        }
+        encoded.flip();
+        return encoded;
+    }
+
+    /**
+     *  Appends the record of a graph, given the lengths of the indexed files before its records were written.
+     */
+    public void add(Map<String, Long> positions, int nodes, int edges) throws IOException {
+        if (buffer.remaining() < recordBytes) {
+            drain();
+        }
+        for (String file : files) {
+            Long position = positions.get(file);
+            if (position == null) {
+                throw new IllegalArgumentException("No position for the indexed file " + file);
+            }
+            buffer.putLong(position);
+        }
+        buffer.putInt(nodes).putInt(edges);
+        count++;
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     *  Writes the buffered records and forces them to the storage device. The header is only written on close,
+     *  the number of graphs of an index being read from its size.
+     */
+    public void sync() throws IOException {
+        drain();
+        channel.force(false);
+    }
+
+    public Path getPath() { return path; }
+
+    /**
+     *  Number of graphs indexed so far.
+     */
+    public long getCount() { return count; }
+
+    /**
+     *  Length in bytes of the index, buffered records included.
+     */
+    public long getPosition() { return recordsStart + count * recordBytes; }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        drain();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(0, count);
+        channel.write(header, 0);
+        channel.force(true);
+        channel.close();
+    }
+}
@@ -0,0 +1,161 @@
+package geodes.sms.astparser.graph;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Random access to the exported graphs through the index written by GraphIndex: the index is memory-mapped,
+ *  and the records of one graph are read from the indexed files with a positional read each.
+ *  The number of graphs is derived from the size of the index rather than from its header, so that the index
+ *  of an interrupted run can be read up to its last complete record.
+ *  The index must be smaller than 2 GB, the limit of a single mapping.
+ */
+public class GraphIndexReader implements Closeable {
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.withDelimiter('|');
+
+    private final Path dir;
+
+    private final List<String> files = new ArrayList<>();
+
+    private final ByteBuffer records;
+
+    private final int recordBytes;
+
+    private final int graphCount;
+
+    private final Map<String, FileChannel> channels = new HashMap<>();
+
+    /**
+     *  Opens the index of the outputs of the given directory, which the indexed file names are relative to.
+     */
+    public GraphIndexReader(Path dir) throws IOException {
+        this.dir = dir;
+        try (FileChannel channel = FileChannel.open(dir.resolve(GraphIndex.INDEX_FILE), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            mapped.position(GraphIndex.HEADER_BYTES);
+            int fileCount = mapped.getInt();
+            for (int f = 0; f < fileCount; f++) {
+                byte[] name = new byte[mapped.getInt()];
+                mapped.get(name);
+                files.add(new String(name, StandardCharsets.UTF_8));
+            }
+            recordBytes = GraphIndex.recordBytes(fileCount);
+            records = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+            graphCount = Math.toIntExact(records.remaining() / recordBytes);
+        }
+    }
+
+    public int getGraphCount() { return graphCount; }
+
+    /**
+     *  Names of the indexed files, relative to the output directory.
+     */
+    public List<String> getFiles() { return files; }
+
+    public int getNodeCount(int graph) {
+        return records.getInt(graph * recordBytes + files.size() * Long.BYTES);
+    }
+
+    public int getEdgeCount(int graph) {
+        return records.getInt(graph * recordBytes + files.size() * Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     *  Offset in the given file of the first record of the graph.
+     */
+    public long getOffset(int graph, String file) {
+        return records.getLong(graph * recordBytes + fileIndex(file) * Long.BYTES);
+    }
+
+    private int fileIndex(String file) {
+        int index = files.indexOf(file);
+        if (index < 0) {
+            throw new IllegalArgumentException("Not an indexed file: " + file);
+        }
+        return index;
+    }
+
+    /**
+     *  Reads the records of one graph in the given file: the bytes from its offset to the offset of the next
+     *  graph, or to the end of the file for the last graph.
+     */
+    public byte[] readRecords(int graph, String file) throws IOException {
+        if (graph < 0 || graph >= graphCount) {
+            throw new IndexOutOfBoundsException("No graph " + graph + " in an index of " + graphCount + " graphs");
+        }
+        FileChannel channel = channel(file);
+        long start = getOffset(graph, file);
+        long end = graph + 1 < graphCount ? getOffset(graph + 1, file) : channel.size();
+        ByteBuffer bytes = ByteBuffer.allocate(Math.toIntExact(end - start));
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, start + bytes.position()) < 0) {
+                throw new IOException(String.format("Truncated file %s: graph %s ends at %s", file, graph, end));
+            }
+        }
+        return bytes.array();
+    }
+
+    /**
+     *  Reads the JSONL record of the method of one graph, without its line break.
+     */
+    public String readMethod(int graph, String methodsFile) throws IOException {
+        String record = new String(readRecords(graph, methodsFile), StandardCharsets.UTF_8);
+        return record.endsWith("\n") ? record.substring(0, record.length() - 1) : record;
+    }
+
+    /**
+     *  Copies one graph of the CSV outputs into the given compact graph. The labels are the ones of nodes.csv,
+     *  i.e., ids of the label vocabulary when the outputs were written with label ids.
+     */
+    public CompactGraph readCsvGraph(int graph, CompactGraph target) throws IOException {
+        target.clear();
+        String nodes = new String(readRecords(graph, "nodes.csv"), StandardCharsets.UTF_8);
+        try (CSVParser parser = CSVParser.parse(nodes, FORMAT)) {
+            for (CSVRecord node : parser) {
+                target.addNode(node.get(1), Byte.parseByte(node.get(2)));
+            }
+        }
+        String edges = new String(readRecords(graph, "edges.csv"), StandardCharsets.UTF_8);
+        try (CSVParser parser = CSVParser.parse(edges, FORMAT)) {
+            for (CSVRecord edge : parser) {
+                target.addEdge(Byte.parseByte(edge.get(0)),
+                        Integer.parseInt(edge.get(1)), Integer.parseInt(edge.get(2)));
+            }
+        }
+        return target;
+    }
+
+    private FileChannel channel(String file) throws IOException {
+        fileIndex(file);
+        FileChannel channel = channels.get(file);
+        if (channel == null) {
+            channel = FileChannel.open(dir.resolve(file), StandardOpenOption.READ);
+            channels.put(file, channel);
+        }
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel channel : channels.values()) {
+            channel.close();
+        }
+        channels.clear();
+    }
+}
@@ -0,0 +1,247 @@
+package geodes.sms.astparser.graph;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *  Columnar binary export of the method graphs, one file per column.
+ *  Every file starts with the number of elements it holds as a little-endian int64, written on close,
+ *  followed by the elements themselves:
+ *  little-endian int32 values for the int columns and raw UTF-8 bytes for the label strings.
+ *  Node labels are ids in a string table shared by all the graphs of the run: the label of id i is
+ *  the bytes between label-offsets[i] and label-offsets[i + 1] of label-strings.bin.
+ *  BinaryGraphReader maps these files and exposes the columns without copying them.
+ */
+public class GraphToBinary implements GraphExporter {
+    static final String GRAPH_NODES = "graph-nodes.bin";
+
+    static final String GRAPH_EDGES = "graph-edges.bin";
+
+    static final String NODE_TYPES = "node-types.bin";
+
+    static final String NODE_LABELS = "node-labels.bin";
+
+    static final String EDGE_TYPES = "edge-types.bin";
+
+    static final String EDGE_SOURCES = "edge-sources.bin";
+
+    static final String EDGE_TARGETS = "edge-targets.bin";
+
+    static final String LABEL_OFFSETS = "label-offsets.bin";
+
+    static final String LABEL_STRINGS = "label-strings.bin";
+
+    static final int HEADER_BYTES = Long.BYTES;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final Column graphNodes;
+
+    private final Column graphEdges;
+
+    private final Column nodeTypes;
+
+    private final Column nodeLabels;
+
+    private final Column edgeTypes;
+
+    private final Column edgeSources;
+
+    private final Column edgeTargets;
+
+    private final Column labelOffsets;
+
+    private final Column labelStrings;
+
+    private final Map<String, Integer> labelIds = new HashMap<>();
+
+    private int labelBytes = 0;
+
+    public GraphToBinary(String dir) {
+        this(dir, BUFFER_BYTES, false);
+    }
+
+    /**
+     *  Opens the columns of the directory, truncated or, when append is set, positioned after the elements
+     *  they already hold, whose count is then derived from the file size rather than from the header.
+     */
+    public GraphToBinary(String dir, int bufferBytes, boolean append) {
+        try {
+            graphNodes = new Column(Paths.get(dir, GRAPH_NODES), Integer.BYTES, bufferBytes, append);
+            graphEdges = new Column(Paths.get(dir, GRAPH_EDGES), Integer.BYTES, bufferBytes, append);
+            nodeTypes = new Column(Paths.get(dir, NODE_TYPES), Integer.BYTES, bufferBytes, append);
+            nodeLabels = new Column(Paths.get(dir, NODE_LABELS), Integer.BYTES, bufferBytes, append);
+            edgeTypes = new Column(Paths.get(dir, EDGE_TYPES), Integer.BYTES, bufferBytes, append);
+            edgeSources = new Column(Paths.get(dir, EDGE_SOURCES), Integer.BYTES, bufferBytes, append);
+            edgeTargets = new Column(Paths.get(dir, EDGE_TARGETS), Integer.BYTES, bufferBytes, append);
+            labelOffsets = new Column(Paths.get(dir, LABEL_OFFSETS), Integer.BYTES, bufferBytes, append);
+            labelStrings = new Column(Paths.get(dir, LABEL_STRINGS), 1, bufferBytes, append);
+            if (labelOffsets.count == 0) {
+                labelOffsets.putInt(0);
+            } else {
+                loadLabels(Paths.get(dir));
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public void writeGraph(CompactGraph graph) {
+        try {
+            graphNodes.putInt(graph.getNodeCount());
+            graphEdges.putInt(graph.getEdgeCount());
+            for (int n = 0; n < graph.getNodeCount(); n++) {
+                nodeTypes.putInt(graph.getNodeType(n));
+                nodeLabels.putInt(labelId(graph.getNodeLabel(n)));
+            }
+            for (int e = 0; e < graph.getEdgeCount(); e++) {
+                edgeTypes.putInt(graph.getEdgeType(e));
+                edgeSources.putInt(graph.getEdgeSource(e));
+                edgeTargets.putInt(graph.getEdgeTarget(e));
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private int labelId(String label) throws IOException {
+        Integer id = labelIds.get(label);
+        if (id == null) {
+            id = labelIds.size();
+            labelIds.put(label, id);
+            byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+            labelStrings.putBytes(bytes);
+            labelBytes += bytes.length;
+            labelOffsets.putInt(labelBytes);
+        }
+        return id;
+    }
+
+    /**
+     *  Reloads the string table of the columns being appended to, so that known labels keep their ids.
+     */
+    private void loadLabels(Path dir) throws IOException {
+        ByteBuffer offsets = ByteBuffer.wrap(Files.readAllBytes(dir.resolve(LABEL_OFFSETS))).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] strings = Files.readAllBytes(dir.resolve(LABEL_STRINGS));
+        int start = offsets.getInt(HEADER_BYTES);
+        for (int id = 0; id < labelOffsets.count - 1; id++) {
+            int end = offsets.getInt(HEADER_BYTES + (id + 1) * Integer.BYTES);
+            labelIds.put(new String(strings, HEADER_BYTES + start, end - start, StandardCharsets.UTF_8), id);
+            start = end;
+        }
+        labelBytes = start;
+    }
+
+    private Column[] columns() {
+        return new Column[] {
+                graphNodes, graphEdges, nodeTypes, nodeLabels, edgeTypes, edgeSources, edgeTargets,
+                labelOffsets, labelStrings};
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (Column column : columns()) {
+            column.drain();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        for (Column column : columns()) {
+            column.drain();
+            column.channel.force(false);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getPositions() {
+        Map<String, Long> positions = new LinkedHashMap<>();
+        for (Column column : columns()) {
+            positions.put(column.path.getFileName().toString(), HEADER_BYTES + column.count * column.elementBytes);
+        }
+        return positions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Column column : columns()) {
+            column.close();
+        }
+    }
+
+    private static class Column {
+        private final Path path;
+
+        private final int elementBytes;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private long count = 0;
+
+        Column(Path path, int elementBytes, int bufferBytes, boolean append) throws IOException {
+            this.path = path;
+            this.elementBytes = elementBytes;
+            buffer = ByteBuffer.allocateDirect(Math.max(Integer.BYTES, bufferBytes)).order(ByteOrder.LITTLE_ENDIAN);
+            if (append) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                count = Math.max(0, channel.size() - HEADER_BYTES) / elementBytes;
+            } else {
+                channel = FileChannel.open(path,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            channel.truncate(HEADER_BYTES + count * elementBytes);
+            channel.position(HEADER_BYTES + count * elementBytes);
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                drain();
+            }
+            buffer.putInt(value);
+            count++;
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            for (int offset = 0; offset < bytes.length; ) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+            count += bytes.length;
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            drain();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(0, count);
+            channel.write(header, 0);
+            channel.force(true);
+            channel.close();
+        }
+    }
+}
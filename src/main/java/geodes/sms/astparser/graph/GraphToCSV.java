@@ -2,36 +2,95 @@ package geodes.sms.astparser.graph;
 
 import com.google.common.graph.MutableNetwork;
 import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-public class GraphToCSV {
+public class GraphToCSV implements GraphExporter {
+    /**
+     *  Size of the buffer of each output file, i.e., the number of bytes after which it is written to disk.
+     */
+    public static final int DEFAULT_FLUSH_BYTES = 8 << 20;
+
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.withDelimiter('|');
+
+    private static final int EDGES = 0;
+
+    private static final int NODES = 1;
+
+    private static final int NUM_EDGES = 2;
+
+    private static final int NUM_NODES = 3;
+
     private final String basePath;
 
-    private MutableNetwork<IdentifierNode, IdentifierRelationEdge> graph;
+    private CompactGraph graph;
+
+    /**
+     *  Reused to convert the Guava networks given to setGraph into the compact form the records are written from.
+     */
+    private final CompactGraph networkGraph = new CompactGraph();
+
+    /**
+     *  The records of a graph are formatted in one builder per file, then appended to the buffered writer
+     *  of the file. Writers are flushed when their buffer is full, or every flushGraphs graphs if it is positive.
+     */
+    private final List<RecordWriter> writers;
+
+    private final List<StringBuilder> records;
+
+    private final int flushGraphs;
+
+    private int graphsSinceFlush = 0;
 
-    private final List<CSVPrinter> csvPrinters;
+    /**
+     *  Vocabulary of the labels written as ids in the node records, null to write the labels themselves.
+     */
+    private LabelVocabulary vocabulary;
+
+    private final Logger logger = Logger.getLogger(GraphToCSV.class.getName());
 
     public GraphToCSV(String dir) {
+        this(dir, DEFAULT_FLUSH_BYTES, 0, false);
+    }
+
+    /**
+     *  Opens the CSV outputs of the directory, truncated or, when append is set, positioned at their end.
+     */
+    public GraphToCSV(String dir, int flushBytes, int flushGraphs, boolean append) {
+        this(dir, flushBytes, flushGraphs, append, false);
+    }
+
+    /**
+     *  Writes gzip compressed CSV files, named with a .gz suffix, when compress is set.
+     */
+    public GraphToCSV(String dir, int flushBytes, int flushGraphs, boolean append, boolean compress) {
         basePath = dir;
-        csvPrinters = Stream.of("edges.csv", "nodes.csv", "num-edge-list.csv", "num-node-list.csv")
-                .map(p -> Paths.get(basePath, p))
+        this.flushGraphs = flushGraphs;
+        writers = Stream.of("edges.csv", "nodes.csv", "num-edge-list.csv", "num-node-list.csv")
+                .map(p -> Paths.get(basePath, compress ? p + ".gz" : p))
                 .map(p -> {
                     try {
-                        BufferedWriter writer = Files.newBufferedWriter(p);
-                        return new CSVPrinter(writer, CSVFormat.DEFAULT.withDelimiter('|'));
+                        return new RecordWriter(p, flushBytes, append, compress);
                     } catch (IOException ioe) {
-                        ioe.printStackTrace();
+                        throw new UncheckedIOException(ioe);
                     }
-                    return null;
                 }).collect(Collectors.toList());
+        records = Stream.generate(StringBuilder::new).limit(writers.size()).collect(Collectors.toList());
+    }
+
+    @Override
+    public void writeGraph(CompactGraph graph) {
+        setGraph(graph);
+        writeGraphToCSV();
     }
 
     public void writeGraphToCSV() {
@@ -41,60 +100,111 @@ public class GraphToCSV {
             writeNumEdgeRecord();
             writeNodeRecords();
             writeEdgeRecords();
+            graphsSinceFlush++;
+            if (flushGraphs > 0 && graphsSinceFlush >= flushGraphs) {
+                flush();
+            }
         } catch (IOException ioe) {
-            ioe.printStackTrace();
+            // a record missing from one file would shift every row after it, see GraphSink
+            throw new UncheckedIOException(ioe);
         }
     }
 
     private void writeNumNodeRecord() throws IOException {
-        CSVPrinter printer = csvPrinters.get(3);
-        printer.printRecord(String.valueOf(graph.nodes().size()));
-        printer.flush();
+        StringBuilder record = records.get(NUM_NODES);
+        record.append(graph.getNodeCount()).append(FORMAT.getRecordSeparator());
+        commit(NUM_NODES);
     }
 
     private void writeNumEdgeRecord() throws IOException {
-        CSVPrinter printer = csvPrinters.get(2);
-        printer.printRecord(String.valueOf(graph.edges().size()));
-        printer.flush();
+        StringBuilder record = records.get(NUM_EDGES);
+        record.append(graph.getEdgeCount()).append(FORMAT.getRecordSeparator());
+        commit(NUM_EDGES);
     }
 
     private void writeNodeRecords() throws IOException {
-        CSVPrinter printer = csvPrinters.get(1);
-        graph.nodes().forEach(n -> {
-            try {
-                printer.printRecord(
-                    String.valueOf(n.getIdCount()),
-                    String.valueOf(n.getLabel()),
-                    String.valueOf(NodeTypeEnum.valueOf(n.getType()).getId())
-                );
-            } catch (IOException e) {
-                e.printStackTrace();
+        StringBuilder record = records.get(NODES);
+        for (int n = 0; n < graph.getNodeCount(); n++) {
+            record.append(n);
+            if (vocabulary != null) {
+                record.append(FORMAT.getDelimiter()).append(vocabulary.intern(graph.getNodeLabel(n)));
+            } else {
+                FORMAT.print(graph.getNodeLabel(n), record, false);
             }
-        });
-        printer.flush();
+            record.append(FORMAT.getDelimiter()).append(graph.getNodeType(n)).append(FORMAT.getRecordSeparator());
+        }
+        commit(NODES);
     }
 
     private void writeEdgeRecords() throws IOException {
-        CSVPrinter printer = csvPrinters.get(0);
-        graph.edges().forEach(e -> {
-            try {
-                printer.printRecord(
-                    String.valueOf(EdgeTypeEnum.valueOf(e.getValue()).getId()),
-                    String.valueOf(e.getSourceNode().getIdCount()),
-                    String.valueOf(e.getTargetNode().getIdCount())
-                );
-            } catch (IOException ioe) {
-                ioe.printStackTrace();
-            }
-        });
-        printer.flush();
+        StringBuilder record = records.get(EDGES);
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            record.append(graph.getEdgeType(e))
+                    .append(FORMAT.getDelimiter()).append(graph.getEdgeSource(e))
+                    .append(FORMAT.getDelimiter()).append(graph.getEdgeTarget(e))
+                    .append(FORMAT.getRecordSeparator());
+        }
+        commit(EDGES);
     }
 
-    public MutableNetwork<IdentifierNode, IdentifierRelationEdge> getGraph() {
+    private void commit(int file) throws IOException {
+        StringBuilder record = records.get(file);
+        writers.get(file).write(record.toString().getBytes(StandardCharsets.UTF_8));
+        record.setLength(0);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (RecordWriter writer : writers) {
+            writer.flush();
+        }
+        graphsSinceFlush = 0;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        for (RecordWriter writer : writers) {
+            writer.sync();
+        }
+        graphsSinceFlush = 0;
+    }
+
+    @Override
+    public Map<String, Long> getPositions() {
+        Map<String, Long> positions = new LinkedHashMap<>();
+        writers.forEach(w -> positions.put(w.getPath().getFileName().toString(), w.getPosition()));
+        return positions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RecordWriter writer : writers) {
+            writer.close();
+            logger.info(String.format("Wrote %s bytes to %s in %s flushes",
+                    writer.getPosition(), writer.getPath(), writer.getFlushes()));
+        }
+    }
+
+    /**
+     *  Writes the ids of the labels in the given vocabulary instead of the labels in the node records.
+     */
+    public void setLabelIds(LabelVocabulary vocabulary) {
+        this.vocabulary = vocabulary;
+    }
+
+    public List<RecordWriter> getWriters() {
+        return writers;
+    }
+
+    public CompactGraph getGraph() {
         return graph;
     }
 
-    public void setGraph(MutableNetwork<IdentifierNode, IdentifierRelationEdge> graph) {
+    public void setGraph(CompactGraph graph) {
         this.graph = graph;
     }
+
+    public void setGraph(MutableNetwork<IdentifierNode, IdentifierRelationEdge> graph) {
+        this.graph = graph != null ? networkGraph.load(graph) : null;
+    }
 }
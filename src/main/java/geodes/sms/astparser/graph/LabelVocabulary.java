@@ -0,0 +1,160 @@
+package geodes.sms.astparser.graph;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  Interner of the node labels of a whole run into integer ids, so that node records can carry an id
+ *  instead of repeating the label, and the vocabulary is written once, with the number of nodes of every label.
+ *  Id 0 is the out-of-vocabulary id: it is given to the labels seen once the vocabulary holds maxSize ids.
+ *  The cap is thus on the first labels seen, not on the most frequent ones, ids being written in the node
+ *  records as the graphs are exported, before the frequencies of the run are known.
+ *  Interning is thread-safe, but ids follow the order in which labels are first interned, so the graph
+ *  exporters intern from the ordered writer of the run to make ids the same from one run to the next.
+ *  A vocabulary written by a previous run can be loaded to keep its ids, and capped to its most frequent
+ *  labels: capping by frequency takes a first run without limit, whose vocabulary the next run loads.
+ */
+public class LabelVocabulary {
+    public static final String VOCABULARY_FILE = "label-vocab.csv";
+
+    public static final int OOV = 0;
+
+    public static final String OOV_LABEL = "<unk>";
+
+    private static final CSVFormat FORMAT = CSVFormat.DEFAULT.withDelimiter('|');
+
+    private static class Entry {
+        final int id;
+
+        final String label;
+
+        final LongAdder count = new LongAdder();
+
+        Entry(int id, String label) {
+            this.id = id;
+            this.label = label;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     *  Entries by id, only appended to while holding the lock of the vocabulary.
+     */
+    private final List<Entry> byId = new ArrayList<>();
+
+    private final int maxSize;
+
+    /**
+     *  A maxSize of 0 leaves the vocabulary unbounded; otherwise the first maxSize - 1 labels interned get ids.
+     */
+    public LabelVocabulary(int maxSize) {
+        this.maxSize = maxSize;
+        byId.add(new Entry(OOV, OOV_LABEL));
+    }
+
+    /**
+     *  Loads a vocabulary written by write. When it holds more labels than maxSize allows, only the most
+     *  frequent ones are kept, and renumbered by decreasing frequency; otherwise labels keep their ids.
+     *  The counts of the file are kept, so the vocabulary written at the end of the run accumulates them.
+     */
+    public static LabelVocabulary load(Path file, int maxSize) throws IOException {
+        List<Entry> loaded = new ArrayList<>();
+        long oovCount = 0;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             CSVParser parser = FORMAT.parse(reader)) {
+            for (CSVRecord record : parser) {
+                Entry entry = new Entry(Integer.parseInt(record.get(0)), record.get(1));
+                entry.count.add(Long.parseLong(record.get(2)));
+                if (entry.id == OOV) {
+                    oovCount = entry.count.sum();
+                } else {
+                    loaded.add(entry);
+                }
+            }
+        }
+        loaded.sort(Comparator.comparingInt(e -> e.id));
+        boolean capped = maxSize > 0 && loaded.size() >= maxSize;
+        if (capped) {
+            loaded.sort(Comparator.comparingLong((Entry e) -> e.count.sum()).reversed()
+                    .thenComparingInt(e -> e.id));
+        }
+        LabelVocabulary vocabulary = new LabelVocabulary(maxSize);
+        vocabulary.byId.get(OOV).count.add(oovCount);
+        for (Entry entry : loaded) {
+            if (capped && vocabulary.byId.size() >= maxSize) {
+                vocabulary.byId.get(OOV).count.add(entry.count.sum());
+                continue;
+            }
+            int id = capped ? vocabulary.byId.size() : entry.id;
+            if (id != vocabulary.byId.size()) {
+                throw new IOException(String.format("Unexpected id %s in %s", id, file));
+            }
+            Entry kept = new Entry(id, entry.label);
+            kept.count.add(entry.count.sum());
+            vocabulary.byId.add(kept);
+            vocabulary.entries.put(kept.label, kept);
+        }
+        return vocabulary;
+    }
+
+    /**
+     *  Returns the id of a label, adding it to the vocabulary unless it is full, and counts one more node for it.
+     */
+    public int intern(String label) {
+        Entry entry = entries.get(label);
+        if (entry == null) {
+            synchronized (this) {
+                entry = entries.get(label);
+                if (entry == null) {
+                    if (maxSize > 0 && byId.size() >= maxSize) {
+                        entry = byId.get(OOV);
+                    } else {
+                        entry = new Entry(byId.size(), label);
+                        byId.add(entry);
+                        entries.put(label, entry);
+                    }
+                }
+            }
+        }
+        entry.count.increment();
+        return entry.id;
+    }
+
+    /**
+     *  Number of ids, the out-of-vocabulary one included.
+     */
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     *  Writes the vocabulary as id|label|count records, ordered by id, through a temporary file moved in place.
+     */
+    public synchronized void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+             CSVPrinter printer = new CSVPrinter(writer, FORMAT)) {
+            for (Entry entry : byId) {
+                printer.printRecord(entry.id, entry.label, entry.count.sum());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
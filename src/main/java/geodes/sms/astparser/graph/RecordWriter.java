@@ -0,0 +1,192 @@
+package geodes.sms.astparser.graph;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *  Output file written through one large buffer that only goes to disk when it is full or flushed
+ *  explicitly, instead of on every record.
+ *  It keeps track of the bytes written so far, buffered ones included, and of the number of flushes.
+ *  A compressed writer writes a gzip stream instead: every flush hands the full buffer to a thread of
+ *  the writer that deflates it, while records go on filling a second buffer. Its position counts the
+ *  uncompressed bytes, so it is not the length of the file.
+ */
+public class RecordWriter implements Closeable {
+    private static final int GZIP_BUFFER_BYTES = 1 << 16;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private ByteBuffer buffer;
+
+    private final GZIPOutputStream gzip;
+
+    private final ExecutorService compressor;
+
+    /**
+     *  Buffer being deflated by the compressor, if any, and the buffer to fill once it is done.
+     */
+    private Future<ByteBuffer> compressing;
+
+    private ByteBuffer spare;
+
+    private long position;
+
+    private long flushes = 0;
+
+    public RecordWriter(Path path, int bufferBytes) throws IOException {
+        this(path, bufferBytes, false);
+    }
+
+    /**
+     *  Opens the file for writing, either truncated or positioned at its end when append is set.
+     */
+    public RecordWriter(Path path, int bufferBytes, boolean append) throws IOException {
+        this(path, bufferBytes, append, false);
+    }
+
+    /**
+     *  Opens the file as a gzip stream when compress is set. Appending to a compressed file adds a gzip member
+     *  to it, which decompresses to the concatenation of the records of both runs.
+     */
+    public RecordWriter(Path path, int bufferBytes, boolean append, boolean compress) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = ByteBuffer.allocate(Math.max(1, bufferBytes));
+        if (compress) {
+            gzip = new GZIPOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), GZIP_BUFFER_BYTES), GZIP_BUFFER_BYTES);
+            compressor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("compressor-" + path.getFileName())
+                    .setDaemon(true)
+                    .build());
+            spare = ByteBuffer.allocate(buffer.capacity());
+            position = 0;
+        } else {
+            gzip = null;
+            compressor = null;
+            position = channel.size();
+        }
+    }
+
+    public void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.remaining()) {
+            flush();
+        }
+        if (bytes.length > buffer.capacity()) {
+            if (gzip != null) {
+                awaitCompression();
+                gzip.write(bytes);
+            } else {
+                ByteBuffer direct = ByteBuffer.wrap(bytes);
+                while (direct.hasRemaining()) {
+                    channel.write(direct);
+                }
+            }
+        } else {
+            buffer.put(bytes);
+        }
+        position += bytes.length;
+    }
+
+    public void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        if (gzip != null) {
+            awaitCompression();
+            ByteBuffer full = buffer;
+            compressing = compressor.submit(() -> {
+                gzip.write(full.array(), 0, full.limit());
+                full.clear();
+                return full;
+            });
+            buffer = spare;
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        flushes++;
+    }
+
+    /**
+     *  Flushes the buffer and forces the written bytes to the storage device, keeping the file open.
+     */
+    public void sync() throws IOException {
+        flush();
+        if (gzip != null) {
+            awaitCompression();
+            gzip.flush();
+        }
+        channel.force(false);
+    }
+
+    /**
+     *  Waits for the compressor to deflate the previous buffer, which becomes the spare buffer.
+     */
+    private void awaitCompression() throws IOException {
+        if (compressing == null) {
+            return;
+        }
+        try {
+            spare = compressing.get();
+            compressing = null;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + path, ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new UncheckedIOException(new IOException(ee.getCause()));
+        }
+    }
+
+    /**
+     *  Flushes the buffer and forces the written bytes to the storage device before closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        flush();
+        if (gzip != null) {
+            awaitCompression();
+            compressor.shutdown();
+            gzip.finish();
+            gzip.flush();
+        }
+        channel.force(true);
+        if (gzip != null) {
+            // also releases the deflater
+            gzip.close();
+        }
+        channel.close();
+    }
+
+    public Path getPath() { return path; }
+
+    public long getPosition() { return position; }
+
+    public long getFlushes() { return flushes; }
+}
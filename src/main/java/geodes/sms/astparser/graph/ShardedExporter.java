@@ -0,0 +1,216 @@
+package geodes.sms.astparser.graph;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ *  Splits the exported graphs into shard directories, shard-00000, shard-00001, ..., each written by its own
+ *  set of exporters, and rolls over to a new shard once the current one holds maxGraphs graphs or maxBytes
+ *  bytes. Node ids are local to their graph and every shard has its own label table, so each shard can be
+ *  loaded on its own.
+ *  The manifest lists, for every shard, its directory, its number of graphs, the row of the methods file
+ *  describing its first graph and the length of its files. It is rewritten whenever a shard is completed.
+ */
+public class ShardedExporter implements GraphExporter {
+    public static final String MANIFEST_FILE = "output-shards.json";
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private static final Pattern SHARD_DIR = Pattern.compile("shard-\\d{5,}");
+
+    /**
+     *  Opens the exporters writing a shard into the given directory.
+     */
+    public interface ShardFactory {
+        List<GraphExporter> open(Path dir) throws IOException;
+    }
+
+    static class Shard {
+        String dir;
+
+        long firstRow;
+
+        long graphs;
+
+        Map<String, Long> bytes = new LinkedHashMap<>();
+    }
+
+    private final Path outputDir;
+
+    private final long maxGraphs;
+
+    private final long maxBytes;
+
+    private final ShardFactory factory;
+
+    private final List<Shard> shards = new ArrayList<>();
+
+    private Shard shard;
+
+    private List<GraphExporter> exporters;
+
+    private final Logger logger = Logger.getLogger(ShardedExporter.class.getName());
+
+    /**
+     *  A limit of 0 disables the corresponding rollover.
+     */
+    public ShardedExporter(Path outputDir, long maxGraphs, long maxBytes, ShardFactory factory) {
+        this.outputDir = outputDir;
+        this.maxGraphs = maxGraphs;
+        this.maxBytes = maxBytes;
+        this.factory = factory;
+    }
+
+    /**
+     *  Removes the shard directories and the manifest a previous run wrote into the output directory, so that
+     *  none of its shards outlives the run replacing them. Returns the shard directories removed.
+     */
+    public static List<Path> removeShards(Path outputDir) throws IOException {
+        if (!Files.isDirectory(outputDir)) {
+            return List.of();
+        }
+        List<Path> dirs;
+        try (Stream<Path> files = Files.list(outputDir)) {
+            dirs = files.filter(f -> Files.isDirectory(f) && SHARD_DIR.matcher(f.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path dir : dirs) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.deleteIfExists(outputDir.resolve(MANIFEST_FILE));
+        return dirs;
+    }
+
+    @Override
+    public void writeGraph(CompactGraph graph) {
+        try {
+            if (shard == null) {
+                openShard();
+            } else if (isFull()) {
+                closeShard();
+                openShard();
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        exporters.forEach(e -> e.writeGraph(graph));
+        shard.graphs++;
+    }
+
+    private boolean isFull() {
+        if (maxGraphs > 0 && shard.graphs >= maxGraphs) {
+            return true;
+        }
+        return maxBytes > 0 && exporters.stream()
+                .flatMap(e -> e.getPositions().values().stream())
+                .mapToLong(Long::longValue)
+                .sum() >= maxBytes;
+    }
+
+    private void openShard() throws IOException {
+        Shard next = new Shard();
+        next.dir = String.format("shard-%05d", shards.size());
+        next.firstRow = shard != null ? shard.firstRow + shard.graphs : 0;
+        Path dir = outputDir.resolve(next.dir);
+        Files.createDirectories(dir);
+        exporters = factory.open(dir);
+        shard = next;
+        shards.add(shard);
+    }
+
+    private void closeShard() throws IOException {
+        shard.bytes.putAll(getExporterPositions());
+        IOException failure = null;
+        for (GraphExporter exporter : exporters) {
+            try {
+                exporter.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        saveManifest();
+        logger.info(String.format("Completed %s with %s graphs", shard.dir, shard.graphs));
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Map<String, Long> getExporterPositions() {
+        Map<String, Long> positions = new LinkedHashMap<>();
+        exporters.forEach(e -> positions.putAll(e.getPositions()));
+        return positions;
+    }
+
+    /**
+     *  Writes the manifest through a temporary file moved in place.
+     */
+    private void saveManifest() throws IOException {
+        Path file = outputDir.resolve(MANIFEST_FILE);
+        Path tmp = outputDir.resolve(MANIFEST_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(Map.of("shards", shards), writer);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (exporters != null) {
+            for (GraphExporter exporter : exporters) {
+                exporter.flush();
+            }
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (exporters != null) {
+            for (GraphExporter exporter : exporters) {
+                exporter.sync();
+            }
+        }
+    }
+
+    /**
+     *  Length of the files of the current shard, by their path relative to the output directory.
+     */
+    @Override
+    public Map<String, Long> getPositions() {
+        Map<String, Long> positions = new LinkedHashMap<>();
+        if (shard != null) {
+            getExporterPositions().forEach((file, length) -> positions.put(shard.dir + "/" + file, length));
+        }
+        return positions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (shard != null) {
+            closeShard();
+        } else {
+            saveManifest();
+        }
+    }
+}
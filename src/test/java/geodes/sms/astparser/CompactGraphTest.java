@@ -0,0 +1,87 @@
+package geodes.sms.astparser;
+
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.EdgeTypeEnum;
+import geodes.sms.astparser.graph.GraphToCSV;
+import geodes.sms.astparser.graph.NodeTypeEnum;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactGraphTest {
+    @Test
+    void compactGraphMatchesTheNetworkGraph() {
+        for (String source : TestMethods.SOURCES) {
+            MethodASTParser.Method network = new MethodASTParser.Method(TestMethods.parse(source));
+            MethodASTParser.Method compact = new MethodASTParser.Method(TestMethods.parse(source), new CompactGraph());
+            assertEquals(new CompactGraph().load(network.getGraph()).toString(),
+                    compact.getCompactGraph().toString(), source);
+        }
+    }
+
+    @Test
+    void csvExportIsTheSameFromBothRepresentations(@TempDir Path dir) throws IOException {
+        Path networkDir = Files.createDirectory(dir.resolve("network"));
+        Path compactDir = Files.createDirectory(dir.resolve("compact"));
+        try (GraphToCSV fromNetwork = new GraphToCSV(networkDir.toString());
+             GraphToCSV fromCompact = new GraphToCSV(compactDir.toString())) {
+            for (String source : TestMethods.SOURCES) {
+                fromNetwork.setGraph(new MethodASTParser.Method(TestMethods.parse(source)).getGraph());
+                fromNetwork.writeGraphToCSV();
+                fromCompact.writeGraph(new MethodASTParser.Method(
+                        TestMethods.parse(source), new CompactGraph()).getCompactGraph());
+            }
+        }
+        for (String file : new String[] {"edges.csv", "nodes.csv", "num-edge-list.csv", "num-node-list.csv"}) {
+            assertArrayEquals(Files.readAllBytes(networkDir.resolve(file)),
+                    Files.readAllBytes(compactDir.resolve(file)), file);
+        }
+    }
+
+    @Test
+    void duplicateEdgesAreRejected() {
+        CompactGraph graph = new CompactGraph(1, 1);
+        int method = graph.addNode("m", NodeTypeEnum.METHOD);
+        int var = graph.addNode("x", NodeTypeEnum.VAR);
+        assertTrue(graph.addEdge(EdgeTypeEnum.DEFINES, method, var));
+        assertFalse(graph.addEdge(EdgeTypeEnum.DEFINES, method, var));
+        assertTrue(graph.addEdge(EdgeTypeEnum.DEPENDS_ON, method, var));
+        assertEquals(2, graph.getEdgeCount());
+        assertTrue(graph.edgeExists(EdgeTypeEnum.DEFINES, method, var));
+        assertFalse(graph.edgeExists(EdgeTypeEnum.DEFINES, var, method));
+    }
+
+    @Test
+    void serializedGraphReadsBackIdentical() throws IOException {
+        CompactGraph graph = new MethodASTParser.Method(
+                TestMethods.parse(TestMethods.SOURCES.get(1)), new CompactGraph()).getCompactGraph();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        graph.writeTo(new DataOutputStream(bytes));
+        CompactGraph read = new CompactGraph().readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(graph.toString(), read.toString());
+        assertEquals(graph.toString(), graph.copy().toString());
+    }
+
+    @Test
+    void clearedGraphIsReusable() {
+        CompactGraph graph = new CompactGraph(1, 1);
+        new MethodASTParser.Method(TestMethods.parse(TestMethods.SOURCES.get(1)), graph);
+        new MethodASTParser.Method(TestMethods.parse(TestMethods.SOURCES.get(0)), graph);
+        CompactGraph fresh = new MethodASTParser.Method(
+                TestMethods.parse(TestMethods.SOURCES.get(0)), new CompactGraph()).getCompactGraph();
+        assertEquals(fresh.toString(), graph.toString());
+    }
+}
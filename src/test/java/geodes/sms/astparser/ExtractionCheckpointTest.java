@@ -0,0 +1,157 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.utils.Pair;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.GraphBudget;
+import geodes.sms.astparser.graph.GraphExporter;
+import geodes.sms.astparser.graph.GraphToCSV;
+import geodes.sms.astparser.graph.LabelVocabulary;
+import geodes.sms.astparser.graph.NodeTypeEnum;
+import geodes.sms.astparser.graph.RecordWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractionCheckpointTest {
+    private static final String METHODS_FILE = "methods.jsonl";
+
+    private static List<CompactGraph> graphs(int count) {
+        List<CompactGraph> graphs = new ArrayList<>();
+        for (int g = 0; g < count; g++) {
+            CompactGraph graph = new CompactGraph();
+            graph.addNode("method" + g, NodeTypeEnum.METHOD);
+            graphs.add(graph);
+        }
+        return graphs;
+    }
+
+    private static GraphSink openSink(Path dir, boolean append) throws IOException {
+        List<GraphExporter> exporters = List.of(new GraphToCSV(dir.toString(), 64, 0, append));
+        return new GraphSink(exporters, new RecordWriter(dir.resolve(METHODS_FILE), 64, true),
+                GraphBudget.UNLIMITED, new ExtractionMetrics());
+    }
+
+    private static void write(GraphSink sink, LabelVocabulary vocabulary, List<CompactGraph> graphs, int from, int to) {
+        for (int g = from; g < to; g++) {
+            vocabulary.intern("label" + g);
+            sink.accept(new Pair<>("{\"row\":" + g + "}", graphs.get(g)));
+        }
+    }
+
+    @Test
+    void checkpointRecordsTheStateOfTheRun(@TempDir Path dir) throws IOException {
+        List<CompactGraph> graphs = graphs(10);
+        Path input = dir.resolve("a.jsonl");
+        LabelVocabulary vocabulary = new LabelVocabulary(0);
+        ExtractionCheckpoint checkpoint = new ExtractionCheckpoint();
+        try (GraphSink sink = openSink(dir, false)) {
+            checkpoint.attach(dir, sink, vocabulary, 0);
+            checkpoint.startFile(input);
+            write(sink, vocabulary, graphs, 0, 4);
+            checkpoint.completeFile();
+            checkpoint.startFile(dir.resolve("b.jsonl"));
+            write(sink, vocabulary, graphs, 4, 6);
+        }
+
+        JsonObject json = JsonParser.parseString(Files.readString(
+                dir.resolve(ExtractionCheckpoint.CHECKPOINT_FILE), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals(Set.of("completedFiles", "lines", "rows", "positions", "vocabularyFile"), json.keySet());
+        assertEquals(input.toAbsolutePath().toString(), json.getAsJsonArray("completedFiles").get(0).getAsString());
+        assertEquals(4, json.get("rows").getAsLong());
+        assertEquals(0, json.get("lines").getAsLong());
+
+        ExtractionCheckpoint loaded = ExtractionCheckpoint.load(dir);
+        assertTrue(loaded.isCompleted(input));
+        assertNull(loaded.getPath());
+        assertEquals(4, loaded.getRows());
+        assertEquals(0, loaded.getLines(dir.resolve("b.jsonl")));
+        Map<String, Long> positions = loaded.getPositions();
+        assertTrue(positions.containsKey(METHODS_FILE), positions.toString());
+        assertTrue(positions.get(METHODS_FILE) < Files.size(dir.resolve(METHODS_FILE)));
+
+        // the vocabulary of the checkpoint holds the labels of its rows only
+        LabelVocabulary saved = LabelVocabulary.load(loaded.getVocabularyFile(dir), 0);
+        assertEquals(5, saved.size());
+        assertEquals(4, saved.intern("label3"));
+        assertEquals(5, saved.intern("label4"));
+    }
+
+    @Test
+    void checkpointNeverRefersToTheVocabularyBeingWritten(@TempDir Path dir) throws IOException {
+        List<CompactGraph> graphs = graphs(6);
+        LabelVocabulary vocabulary = new LabelVocabulary(0);
+        ExtractionCheckpoint checkpoint = new ExtractionCheckpoint();
+        try (GraphSink sink = openSink(dir, false)) {
+            checkpoint.attach(dir, sink, vocabulary, 0);
+            checkpoint.startFile(dir.resolve("a.jsonl"));
+            write(sink, vocabulary, graphs, 0, 3);
+            checkpoint.completeFile();
+            Path first = ExtractionCheckpoint.load(dir).getVocabularyFile(dir);
+            String firstContent = Files.readString(first, StandardCharsets.UTF_8);
+
+            checkpoint.startFile(dir.resolve("b.jsonl"));
+            write(sink, vocabulary, graphs, 3, 6);
+            checkpoint.completeFile();
+            Path second = ExtractionCheckpoint.load(dir).getVocabularyFile(dir);
+            assertNotEquals(first, second);
+            assertEquals(7, LabelVocabulary.load(second, 0).size());
+            // the vocabulary of the previous checkpoint is left as it was
+            assertEquals(firstContent, Files.readString(first, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void resumedRunGoesOnFromTheCheckpoint(@TempDir Path dir) throws IOException {
+        List<CompactGraph> graphs = graphs(8);
+        Path input = dir.resolve("a.jsonl");
+        LabelVocabulary vocabulary = new LabelVocabulary(0);
+        ExtractionCheckpoint checkpoint = new ExtractionCheckpoint();
+        try (GraphSink sink = openSink(dir, false)) {
+            checkpoint.attach(dir, sink, vocabulary, 0);
+            checkpoint.startFile(input);
+            write(sink, vocabulary, graphs, 0, 3);
+            checkpoint.completeFile();
+            // rows written after the checkpoint are lost by the run dying
+            checkpoint.startFile(dir.resolve("b.jsonl"));
+            write(sink, vocabulary, graphs, 3, 5);
+        }
+
+        ExtractionCheckpoint resumed = ExtractionCheckpoint.load(dir);
+        ExtractionManifest.truncateOutputs(dir, resumed.getPositions());
+        LabelVocabulary reloaded = LabelVocabulary.load(resumed.getVocabularyFile(dir), 0);
+        try (GraphSink sink = openSink(dir, true)) {
+            resumed.attach(dir, sink, reloaded, 0);
+            resumed.startFile(dir.resolve("b.jsonl"));
+            write(sink, reloaded, graphs, 3, 8);
+            resumed.completeFile();
+        }
+
+        ExtractionCheckpoint completed = ExtractionCheckpoint.load(dir);
+        assertEquals(8, completed.getRows());
+        assertTrue(completed.isCompleted(dir.resolve("b.jsonl")));
+        List<String> rows = Files.readAllLines(dir.resolve(METHODS_FILE), StandardCharsets.UTF_8);
+        assertEquals(8, rows.size());
+        for (int g = 0; g < rows.size(); g++) {
+            assertEquals("{\"row\":" + g + "}", rows.get(g));
+        }
+        LabelVocabulary saved = LabelVocabulary.load(completed.getVocabularyFile(dir), 0);
+        for (int g = 0; g < 8; g++) {
+            assertEquals(g + 1, saved.intern("label" + g));
+        }
+    }
+}
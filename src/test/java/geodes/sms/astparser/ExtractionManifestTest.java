@@ -0,0 +1,86 @@
+package geodes.sms.astparser;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractionManifestTest {
+    private static String hashWhileReading(Path file) throws IOException {
+        try (HashingInputStream in = new HashingInputStream(Hashing.sha256(), Files.newInputStream(file))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return in.hash().toString();
+        }
+    }
+
+    private static ExtractionManifest.Shard extract(ExtractionManifest manifest, Path file, String sha256)
+            throws IOException {
+        ExtractionManifest.Shard shard = manifest.addShard(file, 0, Map.of("methods.jsonl", 0L));
+        manifest.completeShard(shard, 2, Map.of("methods.jsonl", 10L), sha256);
+        return shard;
+    }
+
+    @Test
+    void hashOfTheReadBytesIdentifiesTheFile(@TempDir Path dir) throws IOException {
+        Path input = Files.writeString(dir.resolve("input.jsonl"), "{\"a\":1}\n{\"b\":2}\n");
+        assertEquals(ExtractionManifest.hash(input), hashWhileReading(input));
+
+        ExtractionManifest manifest = new ExtractionManifest();
+        extract(manifest, input, hashWhileReading(input));
+        manifest.save(dir);
+        ExtractionManifest.Shard loaded = ExtractionManifest.load(dir).findShard(input);
+        assertEquals(2, loaded.getRows());
+        assertTrue(loaded.matches(input));
+
+        // touched but unchanged
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 5000));
+        assertTrue(loaded.matches(input));
+
+        // same size, other content
+        Files.write(input, "{\"a\":3}\n{\"b\":4}\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 5000));
+        assertFalse(loaded.matches(input));
+    }
+
+    @Test
+    void shardOfAnUnfinishedReadIsStaleOnceTouched(@TempDir Path dir) throws IOException {
+        Path input = Files.writeString(dir.resolve("input.jsonl"), "{\"a\":1}\n");
+        ExtractionManifest.Shard shard = extract(new ExtractionManifest(), input, null);
+        assertTrue(shard.matches(input));
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() + 5000));
+        assertFalse(shard.matches(input));
+    }
+
+    @Test
+    void incrementalRunFromARelativeBasePathQueuesEveryFileOnce(@TempDir Path dir) throws IOException {
+        Path a = Files.writeString(dir.resolve("a.jsonl"), "{\"a\":1}\n");
+        Path b = Files.writeString(dir.resolve("b.jsonl"), "{\"b\":1}\n");
+        ExtractionManifest manifest = new ExtractionManifest();
+        extract(manifest, a, ExtractionManifest.hash(a));
+        extract(manifest, b, ExtractionManifest.hash(b));
+        Path c = Files.writeString(dir.resolve("c.jsonl"), "{\"c\":1}\n");
+        Files.writeString(b, "{\"b\":2,\"changed\":true}\n");
+
+        // the input files as walked from a relative base path
+        Path base = Paths.get("").toAbsolutePath().relativize(dir);
+        List<Path> inputs = List.of(base.resolve("a.jsonl"), base.resolve("b.jsonl"), base.resolve("c.jsonl"));
+        List<Path> pending = Main.planIncrementalRun(manifest, inputs, dir, dir.resolve("methods.jsonl"));
+        assertEquals(List.of(b.toAbsolutePath(), c.toAbsolutePath()), pending);
+        assertEquals(1, manifest.getShards().size());
+        assertEquals(manifest.getShards().get(0), manifest.findShard(base.resolve("a.jsonl")));
+    }
+}
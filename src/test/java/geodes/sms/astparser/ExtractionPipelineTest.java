@@ -0,0 +1,129 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.utils.Pair;
+import com.google.gson.JsonParser;
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.GraphBudget;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractionPipelineTest {
+    private static final String SOURCE_FILE = String.join("\n",
+            "class Outer {",
+            "    private int count;",
+            "    Outer() { count = 0; }",
+            "    void run() {",
+            "        Runnable r = new Runnable() { public void run() { count++; } };",
+            "        class Local { void local() { } }",
+            "    }",
+            "    static class Nested { int size() { return 0; } }",
+            "    enum Kind { A { void constant() { } }; void kind() { } }",
+            "}");
+
+    private static List<String> extractFile(Path file) {
+        List<String> names = new ArrayList<>();
+        try (ExtractionPipeline pipeline = new ExtractionPipeline(1, 4, ParserConfiguration::new)) {
+            pipeline.extractFiles(List.of(file).iterator(), (Pair<String, CompactGraph> g) -> names.add(
+                    JsonParser.parseString(g.a).getAsJsonObject().get(JsonFieldExtractor.FUNC_NAME).getAsString()));
+        }
+        return names;
+    }
+
+    private static List<String> extractRecords(ExtractionPipeline pipeline) {
+        List<String> graphs = new ArrayList<>();
+        pipeline.extract(TestMethods.SOURCES.stream().map(TestMethods::record).iterator(),
+                (Pair<String, CompactGraph> g) -> graphs.add(g.b.toString()));
+        return graphs;
+    }
+
+    @Test
+    void parserProfilesGiveTheSameGraphs() {
+        List<String> graphs;
+        try (ExtractionPipeline pipeline = new ExtractionPipeline(2, 4, ParserProfile.DEFAULT::newConfiguration)) {
+            graphs = extractRecords(pipeline);
+        }
+        assertEquals(TestMethods.SOURCES.size(), graphs.size());
+        // matched although the parser attributes the comment in the scope of the call to it
+        assertTrue(graphs.stream().anyMatch(g -> g.contains("flush --SCOPE-> wrap")), String.join("\n", graphs));
+        try (ExtractionPipeline pipeline = new ExtractionPipeline(2, 4, ParserProfile.FAST::newConfiguration)) {
+            assertEquals(graphs, extractRecords(pipeline));
+        }
+    }
+
+    @Test
+    void methodReferencesKeepTheirScope() {
+        String source = "long total(List<LongAdder> adders) {\n"
+                + "    return adders.stream().mapToLong(LongAdder::sum).sum();\n"
+                + "}";
+        List<CompactGraph> graphs = new ArrayList<>();
+        for (ParserProfile profile : ParserProfile.values()) {
+            try (ExtractionPipeline pipeline = new ExtractionPipeline(1, 4, profile::newConfiguration)) {
+                pipeline.extract(List.of(TestMethods.record(source)).iterator(),
+                        (Pair<String, CompactGraph> g) -> graphs.add(g.b));
+            }
+        }
+        assertEquals(ParserProfile.values().length, graphs.size());
+        List<String> labels = new ArrayList<>();
+        for (int n = 0; n < graphs.get(0).getNodeCount(); n++) {
+            labels.add(graphs.get(0).getNodeLabel(n));
+        }
+        // the reference is a call node of its own, not merged with the call to sum
+        assertTrue(labels.contains("LongAdder::sum"), labels.toString());
+        assertTrue(labels.contains("sum"), labels.toString());
+        graphs.forEach(g -> assertEquals(graphs.get(0).toString(), g.toString()));
+    }
+
+    @Test
+    void cachedGraphsAreKeyedByParserProfile() throws IOException {
+        ExtractionMetrics metrics = new ExtractionMetrics();
+        try (GraphCache cache = new GraphCache(100, null);
+             ExtractionPipeline pipeline = new ExtractionPipeline(1, 4, ParserProfile.DEFAULT::newConfiguration,
+                     cache, metrics, null, GraphBudget.UNLIMITED)) {
+            extractRecords(pipeline);
+            extractRecords(pipeline);
+            assertEquals(TestMethods.SOURCES.size(), metrics.getCount(ExtractionMetrics.CACHE_HITS));
+            pipeline.setCacheVariant(ParserProfile.FAST.getCacheVariant());
+            extractRecords(pipeline);
+            assertEquals(TestMethods.SOURCES.size(), metrics.getCount(ExtractionMetrics.CACHE_HITS));
+        }
+    }
+
+    @Test
+    void sourceFilesGiveTheMembersOfTheirTypes(@TempDir Path dir) throws IOException {
+        Path file = Files.writeString(dir.resolve("Outer.java"), SOURCE_FILE);
+        assertEquals(List.of("Outer.Outer", "Outer.run", "Nested.size", "Kind.kind"), extractFile(file));
+    }
+
+    @Test
+    void sourceFileParsedOverTheLimitIsQuarantined(@TempDir Path dir) throws IOException {
+        StringBuilder source = new StringBuilder("class Large {\n");
+        for (int m = 0; m < 20_000; m++) {
+            source.append("    int m").append(m).append("(int a) { int b = a * ").append(m)
+                    .append("; return compute(b, a).value(); }\n");
+        }
+        Path file = Files.writeString(dir.resolve("Large.java"), source.append("}\n"));
+        Path quarantineFile = dir.resolve(MethodWatchdog.QUARANTINE_FILE);
+        ExtractionMetrics metrics = new ExtractionMetrics();
+        List<Pair<String, CompactGraph>> graphs = new ArrayList<>();
+        try (MethodWatchdog watchdog = new MethodWatchdog(1, 0, quarantineFile, metrics);
+             ExtractionPipeline pipeline = new ExtractionPipeline(1, 4, ParserConfiguration::new, null, metrics,
+                     null, GraphBudget.UNLIMITED)) {
+            pipeline.setWatchdog(watchdog);
+            pipeline.extractFiles(List.of(file).iterator(), graphs::add);
+        }
+        assertEquals(List.of(), graphs);
+        assertEquals(1, metrics.getCount(MethodWatchdog.QUARANTINED_TIMEOUT));
+        assertEquals(file.toString(), JsonParser.parseString(Files.readString(quarantineFile).trim())
+                .getAsJsonObject().get("path").getAsString());
+    }
+}
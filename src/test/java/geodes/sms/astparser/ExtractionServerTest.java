@@ -0,0 +1,72 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.ParserConfiguration;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import geodes.sms.astparser.graph.GraphBudget;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractionServerTest {
+    /**
+     *  Method nested deeply enough to overflow the stack of the parser.
+     */
+    private static final String NESTED = "int nested() { return " + "(".repeat(100_000) + "1"
+            + ")".repeat(100_000) + "; }";
+
+    private static List<JsonObject> serve(ExtractionPipeline pipeline, ExtractionMetrics metrics, String... sources)
+            throws IOException {
+        StringBuilder requests = new StringBuilder();
+        for (String source : sources) {
+            requests.append(TestMethods.record(source)).append('\n');
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExtractionServer server = new ExtractionServer(pipeline, metrics, 2, 4, false)) {
+            server.serve(new ByteArrayInputStream(requests.toString().getBytes(StandardCharsets.UTF_8)), out);
+        }
+        List<JsonObject> responses = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            responses.add(JsonParser.parseString(line).getAsJsonObject());
+        }
+        return responses;
+    }
+
+    @Test
+    void stackOverflowGetsAnErrorResponse() throws IOException {
+        ExtractionMetrics metrics = new ExtractionMetrics();
+        try (ExtractionPipeline pipeline = new ExtractionPipeline(1, 1, ParserConfiguration::new, null, metrics,
+                null, GraphBudget.UNLIMITED)) {
+            List<JsonObject> responses = serve(pipeline, metrics, NESTED, TestMethods.SOURCES.get(0));
+            assertEquals(2, responses.size());
+            assertTrue(responses.get(0).get("error").getAsString().contains("StackOverflowError"),
+                    responses.get(0).toString());
+            assertTrue(responses.get(1).has("nodes"), responses.get(1).toString());
+        }
+    }
+
+    @Test
+    void watchdogQuarantinesTheRequestsOverItsLimits() throws IOException {
+        ExtractionMetrics metrics = new ExtractionMetrics();
+        try (MethodWatchdog watchdog = new MethodWatchdog(ExtractionServer.DEFAULT_METHOD_MILLIS, 0, null, metrics);
+             ExtractionPipeline pipeline = new ExtractionPipeline(1, 1, ParserConfiguration::new, null, metrics,
+                     null, GraphBudget.UNLIMITED)) {
+            pipeline.setWatchdog(watchdog);
+            List<JsonObject> responses = serve(pipeline, metrics,
+                    TestMethods.SOURCES.get(0), NESTED, TestMethods.SOURCES.get(1));
+            assertEquals(3, responses.size());
+            assertTrue(responses.get(0).has("nodes"), responses.get(0).toString());
+            assertTrue(responses.get(1).has("error"), responses.get(1).toString());
+            assertTrue(responses.get(2).has("nodes"), responses.get(2).toString());
+            assertEquals(1, metrics.getCount(MethodWatchdog.QUARANTINED_STACK_OVERFLOW));
+        }
+    }
+}
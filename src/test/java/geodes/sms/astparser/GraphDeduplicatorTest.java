@@ -0,0 +1,50 @@
+package geodes.sms.astparser;
+
+import geodes.sms.astparser.graph.CompactGraph;
+import geodes.sms.astparser.graph.EdgeTypeEnum;
+import geodes.sms.astparser.graph.NodeTypeEnum;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GraphDeduplicatorTest {
+    private static CompactGraph graph(String method, String var) {
+        CompactGraph graph = new CompactGraph();
+        int m = graph.addNode(method, NodeTypeEnum.METHOD);
+        graph.addEdge(EdgeTypeEnum.DEFINES, m, graph.addNode(var, NodeTypeEnum.VAR));
+        return graph;
+    }
+
+    @Test
+    void dropModeKeepsEveryDistinctGraphPastTheExpectedCount() {
+        GraphDeduplicator deduplicator = new GraphDeduplicator(10, true, true);
+        for (int g = 0; g < 20_000; g++) {
+            assertFalse(deduplicator.isDuplicate(graph("m" + g, "v")), "graph " + g);
+        }
+        assertTrue(deduplicator.isDuplicate(graph("m7", "v")));
+        assertEquals(1, deduplicator.getDuplicates());
+        assertEquals(20_000, deduplicator.getSummary().get("distinctHashes"));
+    }
+
+    @Test
+    void labelsCanBeIgnored() {
+        GraphDeduplicator deduplicator = new GraphDeduplicator(10, false, false);
+        assertFalse(deduplicator.isDuplicate(graph("get", "x")));
+        assertTrue(deduplicator.isDuplicate(graph("set", "y")));
+        assertEquals(1, deduplicator.getDuplicates());
+    }
+
+    @Test
+    void hashSetHoldsEveryValue() {
+        GraphDeduplicator.HashSet64 set = new GraphDeduplicator.HashSet64();
+        for (long h = -5000; h < 5000; h++) {
+            assertTrue(set.add(h * 0x100000001L));
+        }
+        for (long h = -5000; h < 5000; h++) {
+            assertFalse(set.add(h * 0x100000001L));
+        }
+        assertEquals(10_000, set.size());
+    }
+}
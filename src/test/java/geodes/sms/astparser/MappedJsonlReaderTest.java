@@ -0,0 +1,82 @@
+package geodes.sms.astparser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedJsonlReaderTest {
+    private static final String TEXT = "{\"a\":\"x\\ry\"}\r\n"
+            + "{\"b\":\"lone \r return\"}\n"
+            + "\n"
+            + "{\"c\":\"été ☕\"}\r\n"
+            + "\r\n"
+            + "{\"d\":\"" + "z".repeat(300) + "\"}\n"
+            + "{\"e\":\"last line without a break\"}";
+
+    private static List<String> readerLines(String text) {
+        List<String> lines = new ArrayList<>();
+        MappedJsonlReader.lines(new StringReader(text)).forEachRemaining(lines::add);
+        return lines;
+    }
+
+    private static List<String> mappedLines(Path file, int blockBytes, long skip) throws IOException {
+        List<String> lines = new ArrayList<>();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        try (MappedJsonlReader reader = new MappedJsonlReader(file, blockBytes)) {
+            reader.skipLines(skip);
+            MappedJsonlReader.Block block;
+            while ((block = reader.nextBlock()) != null) {
+                String line;
+                while ((line = block.nextLine(decoder)) != null) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    void readerAndMappedBlocksSplitTheSameLines(@TempDir Path dir) throws IOException {
+        Path file = Files.write(dir.resolve("input.jsonl"), TEXT.getBytes(StandardCharsets.UTF_8));
+        List<String> lines = readerLines(TEXT);
+        assertEquals(7, lines.size());
+        assertEquals("{\"b\":\"lone \r return\"}", lines.get(1));
+        assertEquals("", lines.get(4));
+        for (int blockBytes : new int[] {1, 7, 64, 1 << 20}) {
+            assertEquals(lines, mappedLines(file, blockBytes, 0), "blocks of " + blockBytes + " bytes");
+        }
+        for (int skip = 0; skip <= lines.size(); skip++) {
+            assertEquals(lines.subList(skip, lines.size()), mappedLines(file, 16, skip), "after " + skip + " lines");
+        }
+    }
+
+    @Test
+    void longLinesSpanTheReaderBuffer() {
+        String line = "{\"x\":\"" + "y".repeat(20_000) + "\"}";
+        assertEquals(List.of(line, line), readerLines(line + "\r\n" + line + "\n"));
+    }
+
+    @Test
+    void readerFailuresAreUnchecked() {
+        Iterator<String> lines = MappedJsonlReader.lines(new StringReader("") {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                throw new IOException("broken");
+            }
+        });
+        assertThrows(UncheckedIOException.class, lines::hasNext);
+    }
+}
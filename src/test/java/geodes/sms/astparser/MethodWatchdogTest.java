@@ -0,0 +1,43 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseStart;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.javaparser.Providers.provider;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MethodWatchdogTest {
+    @Test
+    void deadlineIsCheckedWhileParsingShortMethods(@TempDir Path dir) throws IOException {
+        StringBuilder source = new StringBuilder("int sum(int a) { int s = 0;");
+        while (source.length() < 2000) {
+            source.append(" s += a * ").append(source.length()).append(';');
+        }
+        source.append(" return s; }");
+        AtomicInteger reads = new AtomicInteger();
+        Reader counting = new FilterReader(new StringReader(source.toString())) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                reads.incrementAndGet();
+                return super.read(buffer, offset, length);
+            }
+        };
+        try (MethodWatchdog watchdog = new MethodWatchdog(60_000, 0, dir.resolve("quarantine.jsonl"),
+                new ExtractionMetrics());
+             MethodWatchdog.Task task = watchdog.start()) {
+            assertTrue(new JavaParser().parse(ParseStart.METHOD_DECLARATION, provider(task.guard(counting)))
+                    .isSuccessful());
+        }
+        assertTrue(reads.get() >= source.length() / MethodWatchdog.GUARD_READ_CHARS,
+                reads.get() + " reads of a source of " + source.length() + " characters");
+    }
+}
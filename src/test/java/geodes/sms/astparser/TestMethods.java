@@ -0,0 +1,67 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.google.gson.JsonObject;
+
+import java.util.List;
+
+import static com.github.javaparser.Providers.provider;
+
+/**
+ *  Method sources shared by the tests, covering declarations, calls with scopes and arguments, assignments,
+ *  parameters and comments between the identifiers.
+ */
+public final class TestMethods {
+    public static final List<String> SOURCES = List.of(
+            "public int add(int a, int b) { int c = a + b; return c; }",
+            "void run(List<String> names) {\n"
+                    + "    StringBuilder sb = new StringBuilder();\n"
+                    + "    for (String name : names) { sb.append(name.trim()).append(','); }\n"
+                    + "    String result = sb.toString();\n"
+                    + "    log(result);\n"
+                    + "}",
+            "Person build(String first, String last) {\n"
+                    + "    return Person.builder()\n"
+                    + "            // set name\n"
+                    + "            .name(first)\n"
+                    + "            /* family name */ .surname(last)\n"
+                    + "            .build();\n"
+                    + "}",
+            "int count(Map<String, Integer> counts, String key) {\n"
+                    + "    int value = counts.getOrDefault(key, 0); // default\n"
+                    + "    value = compute(value, key);\n"
+                    + "    counts.put(key, value);\n"
+                    + "    return value;\n"
+                    + "}",
+            "void chain(StringBuilder sb) {\n"
+                    + "    // a comment attributed to the scope of the call\n"
+                    + "    wrap(/* builder */ sb).flush();\n"
+                    + "}",
+            "void empty() { }");
+
+    private TestMethods() {
+    }
+
+    public static MethodDeclaration parse(String source) {
+        return parse(source, new ParserConfiguration());
+    }
+
+    public static MethodDeclaration parse(String source, ParserConfiguration configuration) {
+        ParseResult<MethodDeclaration> result =
+                new JavaParser(configuration).parse(ParseStart.METHOD_DECLARATION, provider(source));
+        return result.getResult().orElseThrow(() -> new IllegalArgumentException("Does not parse: " + source));
+    }
+
+    /**
+     *  JSONL record of a method source, as found in the input files.
+     */
+    public static String record(String source) {
+        JsonObject record = new JsonObject();
+        record.addProperty(JsonFieldExtractor.ORIGINAL_STRING, source);
+        return record.toString();
+    }
+}
@@ -0,0 +1,30 @@
+package geodes.sms.astparser;
+
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TypeResolverTest {
+    private static String resolveParameter(String source, int parameter) {
+        MethodDeclaration method = TestMethods.parse(source);
+        TypeResolver resolver = new TypeResolver(TypeResolver.newCache(100));
+        resolver.attach(method);
+        Parameter p = method.getParameter(parameter);
+        return resolver.resolveType(p.getType());
+    }
+
+    @Test
+    void resolvesTypesThatNeedNoImport() {
+        String source = "void f(String s, int i, java.util.List<String> l, List<String> m) { }";
+        assertEquals("java.lang.String", resolveParameter(source, 0));
+        assertEquals("int", resolveParameter(source, 1));
+        assertEquals("java.util.List<java.lang.String>", resolveParameter(source, 2));
+    }
+
+    @Test
+    void keepsTheTextOfTypesThatNeedAnImport() {
+        assertEquals("List<String>", resolveParameter("void f(List<String> m) { }", 0));
+    }
+}
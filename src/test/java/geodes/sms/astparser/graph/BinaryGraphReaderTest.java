@@ -0,0 +1,69 @@
+package geodes.sms.astparser.graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BinaryGraphReaderTest {
+    static List<CompactGraph> graphs(int count) {
+        List<CompactGraph> graphs = new ArrayList<>();
+        for (int g = 0; g < count; g++) {
+            CompactGraph graph = new CompactGraph();
+            int method = graph.addNode("method" + g, NodeTypeEnum.METHOD);
+            for (int n = 0; n < g % 5; n++) {
+                int var = graph.addNode(n % 2 == 0 ? "shared" + n : "var" + g + "é" + n, NodeTypeEnum.VAR);
+                graph.addEdge(EdgeTypeEnum.DEFINES, method, var);
+                if (n > 0) {
+                    graph.addEdge(EdgeTypeEnum.DEPENDS_ON, var, var - 1);
+                }
+            }
+            graphs.add(graph);
+        }
+        return graphs;
+    }
+
+    @Test
+    void columnsReadBackTheWrittenGraphs(@TempDir Path dir) throws IOException {
+        List<CompactGraph> graphs = graphs(20);
+        try (GraphToBinary writer = new GraphToBinary(dir.toString(), 16, false)) {
+            graphs.forEach(writer::writeGraph);
+        }
+        BinaryGraphReader reader = new BinaryGraphReader(dir.toString());
+        assertEquals(graphs.size(), reader.getGraphCount());
+        long firstNode = 0;
+        for (int g = 0; g < graphs.size(); g++) {
+            assertEquals(firstNode, reader.getFirstNode(g));
+            assertEquals(graphs.get(g).toString(), reader.readGraph(g, new CompactGraph()).toString());
+            firstNode += graphs.get(g).getNodeCount();
+        }
+    }
+
+    @Test
+    void appendedColumnsKeepTheLabelIds(@TempDir Path dir) throws IOException {
+        List<CompactGraph> graphs = graphs(12);
+        try (GraphToBinary writer = new GraphToBinary(dir.toString(), 64, false)) {
+            graphs.subList(0, 5).forEach(writer::writeGraph);
+        }
+        try (GraphToBinary writer = new GraphToBinary(dir.toString(), 64, true)) {
+            graphs.subList(5, graphs.size()).forEach(writer::writeGraph);
+        }
+        BinaryGraphReader reader = new BinaryGraphReader(dir.toString());
+        assertEquals(graphs.size(), reader.getGraphCount());
+        for (int g = 0; g < graphs.size(); g++) {
+            assertEquals(graphs.get(g).toString(), reader.readGraph(g, new CompactGraph()).toString());
+        }
+        // labels shared by both runs are stored once
+        long distinct = graphs.stream()
+                .flatMap(graph -> java.util.stream.IntStream.range(0, graph.getNodeCount())
+                        .mapToObj(graph::getNodeLabel))
+                .distinct()
+                .count();
+        assertEquals(distinct, reader.getLabelCount());
+    }
+}
@@ -0,0 +1,111 @@
+package geodes.sms.astparser.graph;
+
+import com.github.javaparser.utils.Pair;
+import geodes.sms.astparser.ExtractionMetrics;
+import geodes.sms.astparser.GraphSink;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GraphIndexReaderTest {
+    private static final String METHODS_FILE = "methods.jsonl";
+
+    private static String record(int g) {
+        return "{\"original_string\":\"void m" + g + "() { }\",\"row\":" + g + "}";
+    }
+
+    /**
+     *  Opens a sink writing CSV and binary outputs, and their index, into the directory.
+     */
+    private static GraphSink openSink(Path dir, boolean append) throws IOException {
+        List<GraphExporter> exporters = List.of(new GraphToCSV(dir.toString(), 64, 0, append),
+                new GraphToBinary(dir.toString(), 64, append));
+        GraphSink sink = new GraphSink(exporters, new RecordWriter(dir.resolve(METHODS_FILE), 64, true),
+                GraphBudget.UNLIMITED, new ExtractionMetrics());
+        sink.setIndex(new GraphIndex(dir.resolve(GraphIndex.INDEX_FILE), sink.getPositions().keySet(), 64, append));
+        return sink;
+    }
+
+    private static void write(GraphSink sink, List<CompactGraph> graphs, int from, int to) {
+        for (int g = from; g < to; g++) {
+            sink.accept(new Pair<>(record(g), graphs.get(g)));
+        }
+    }
+
+    /**
+     *  Checks the index of the graphs against the outputs; the binary columns are only readable once closed.
+     */
+    private static void assertIndexed(Path dir, List<CompactGraph> graphs, boolean closed) throws IOException {
+        BinaryGraphReader binary = closed ? new BinaryGraphReader(dir.toString()) : null;
+        try (GraphIndexReader reader = new GraphIndexReader(dir)) {
+            assertEquals(graphs.size(), reader.getGraphCount());
+            for (int g = graphs.size() - 1; g >= 0; g--) {
+                CompactGraph graph = graphs.get(g);
+                assertEquals(graph.getNodeCount(), reader.getNodeCount(g));
+                assertEquals(graph.getEdgeCount(), reader.getEdgeCount(g));
+                assertEquals(record(g), reader.readMethod(g, METHODS_FILE));
+                assertEquals(graph.toString(), reader.readCsvGraph(g, new CompactGraph()).toString());
+                if (binary != null) {
+                    assertEquals(binary.getFirstNode(g),
+                            (reader.getOffset(g, "node-labels.bin") - GraphToBinary.HEADER_BYTES) / Integer.BYTES);
+                }
+            }
+        }
+    }
+
+    @Test
+    void indexFindsEveryGraph(@TempDir Path dir) throws IOException {
+        List<CompactGraph> graphs = BinaryGraphReaderTest.graphs(25);
+        try (GraphSink sink = openSink(dir, false)) {
+            write(sink, graphs, 0, graphs.size());
+        }
+        assertIndexed(dir, graphs, true);
+        try (GraphIndexReader reader = new GraphIndexReader(dir)) {
+            assertTrue(reader.getFiles().containsAll(List.of(METHODS_FILE, "nodes.csv", "edges.csv",
+                    "num-node-list.csv", "num-edge-list.csv", "node-labels.bin")), reader.getFiles().toString());
+            assertFalse(reader.getFiles().contains(GraphIndex.INDEX_FILE));
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.readRecords(25, METHODS_FILE));
+            assertThrows(IllegalArgumentException.class, () -> reader.getOffset(0, "unknown.csv"));
+        }
+    }
+
+    @Test
+    void appendedIndexGoesOnAfterThePreviousRun(@TempDir Path dir) throws IOException {
+        List<CompactGraph> graphs = BinaryGraphReaderTest.graphs(15);
+        try (GraphSink sink = openSink(dir, false)) {
+            write(sink, graphs, 0, 10);
+        }
+        try (GraphSink sink = openSink(dir, true)) {
+            write(sink, graphs, 10, graphs.size());
+        }
+        assertIndexed(dir, graphs, true);
+    }
+
+    @Test
+    void indexOfAnInterruptedRunIsReadUpToItsLastSync(@TempDir Path dir) throws IOException {
+        List<CompactGraph> graphs = BinaryGraphReaderTest.graphs(12);
+        try (GraphSink sink = openSink(dir, false)) {
+            write(sink, graphs, 0, 8);
+            sink.sync();
+            // the header is only written on close
+            assertIndexed(dir, graphs.subList(0, 8), false);
+            write(sink, graphs, 8, graphs.size());
+        }
+        assertIndexed(dir, graphs, true);
+    }
+
+    @Test
+    void indexOfOtherFilesIsNotAppendedTo(@TempDir Path dir) throws IOException {
+        new GraphIndex(dir.resolve(GraphIndex.INDEX_FILE), List.of("nodes.csv"), 64, false).close();
+        assertThrows(IOException.class,
+                () -> new GraphIndex(dir.resolve(GraphIndex.INDEX_FILE), List.of("edges.csv"), 64, true));
+    }
+}
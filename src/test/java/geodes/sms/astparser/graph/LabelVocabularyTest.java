@@ -0,0 +1,48 @@
+package geodes.sms.astparser.graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LabelVocabularyTest {
+    @Test
+    void capKeepsTheFirstLabelsSeen() {
+        LabelVocabulary vocabulary = new LabelVocabulary(3);
+        assertEquals(1, vocabulary.intern("rare"));
+        assertEquals(2, vocabulary.intern("i"));
+        for (int n = 0; n < 10; n++) {
+            assertEquals(LabelVocabulary.OOV, vocabulary.intern("frequent"));
+        }
+        assertEquals(3, vocabulary.size());
+    }
+
+    @Test
+    void loadedVocabularyKeepsItsIdsOrItsMostFrequentLabels(@TempDir Path dir) throws IOException {
+        LabelVocabulary unbounded = new LabelVocabulary(0);
+        unbounded.intern("rare");
+        for (int n = 0; n < 5; n++) {
+            unbounded.intern("i");
+        }
+        for (int n = 0; n < 10; n++) {
+            unbounded.intern("frequent");
+        }
+        Path file = dir.resolve(LabelVocabulary.VOCABULARY_FILE);
+        unbounded.write(file);
+
+        LabelVocabulary kept = LabelVocabulary.load(file, 0);
+        assertEquals(1, kept.intern("rare"));
+        assertEquals(2, kept.intern("i"));
+        assertEquals(3, kept.intern("frequent"));
+        assertEquals(4, kept.intern("new"));
+
+        LabelVocabulary capped = LabelVocabulary.load(file, 3);
+        assertEquals(1, capped.intern("frequent"));
+        assertEquals(2, capped.intern("i"));
+        assertEquals(LabelVocabulary.OOV, capped.intern("rare"));
+        assertEquals(LabelVocabulary.OOV, capped.intern("new"));
+    }
+}
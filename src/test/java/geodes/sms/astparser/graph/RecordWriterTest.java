@@ -0,0 +1,83 @@
+package geodes.sms.astparser.graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordWriterTest {
+    private static final String[] FILES = {"edges.csv", "nodes.csv", "num-edge-list.csv", "num-node-list.csv"};
+
+    private static byte[] records() {
+        StringBuilder records = new StringBuilder();
+        for (int r = 0; r < 500; r++) {
+            records.append("record ").append(r).append(" ").append("x".repeat(r % 37)).append('\n');
+        }
+        return records.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void write(Path file, int bufferBytes, boolean compress) throws IOException {
+        byte[] records = records();
+        try (RecordWriter writer = new RecordWriter(file, bufferBytes, false, compress)) {
+            for (int offset = 0; offset < records.length; offset += 50) {
+                byte[] chunk = new byte[Math.min(50, records.length - offset)];
+                System.arraycopy(records, offset, chunk, 0, chunk.length);
+                writer.write(chunk);
+            }
+            assertEquals(records.length, writer.getPosition());
+        }
+    }
+
+    @Test
+    void bufferSizeDoesNotChangeTheFile(@TempDir Path dir) throws IOException {
+        for (int bufferBytes : new int[] {1, 49, 50, 4096, 1 << 20}) {
+            Path file = dir.resolve("records-" + bufferBytes);
+            write(file, bufferBytes, false);
+            assertArrayEquals(records(), Files.readAllBytes(file), "buffer of " + bufferBytes + " bytes");
+        }
+    }
+
+    @Test
+    void compressedFileDecompressesToTheRecords(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("records.gz");
+        write(file, 64, true);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertArrayEquals(records(), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void csvFilesDoNotDependOnTheFlushPolicy(@TempDir Path dir) throws IOException {
+        Path unbuffered = Files.createDirectory(dir.resolve("unbuffered"));
+        Path buffered = Files.createDirectory(dir.resolve("buffered"));
+        try (GraphToCSV small = new GraphToCSV(unbuffered.toString(), 1, 1, false);
+             GraphToCSV large = new GraphToCSV(buffered.toString(), GraphToCSV.DEFAULT_FLUSH_BYTES, 0, false)) {
+            for (CompactGraph graph : BinaryGraphReaderTest.graphs(30)) {
+                small.writeGraph(graph);
+                large.writeGraph(graph);
+            }
+        }
+        for (String file : FILES) {
+            assertArrayEquals(Files.readAllBytes(buffered.resolve(file)), Files.readAllBytes(unbuffered.resolve(file)),
+                    file);
+        }
+    }
+
+    @Test
+    void csvWriteFailureIsThrown(@TempDir Path dir) throws IOException {
+        GraphToCSV csv = new GraphToCSV(dir.toString(), 1, 0, false);
+        csv.close();
+        CompactGraph graph = BinaryGraphReaderTest.graphs(1).get(0);
+        assertThrows(UncheckedIOException.class, () -> csv.writeGraph(graph));
+    }
+}
@@ -0,0 +1,50 @@
+package geodes.sms.astparser.graph;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedExporterTest {
+    private static void export(Path dir, int graphs, long graphsPerShard) throws IOException {
+        try (ShardedExporter exporter = new ShardedExporter(dir, graphsPerShard, 0,
+                shard -> List.of(new GraphToCSV(shard.toString(), 1 << 10, 0, false)))) {
+            BinaryGraphReaderTest.graphs(graphs).forEach(exporter::writeGraph);
+        }
+    }
+
+    private static List<String> shardDirs(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isDirectory)
+                    .map(f -> f.getFileName().toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void shardsOfALargerRunAreRemoved(@TempDir Path dir) throws IOException {
+        export(dir, 9, 3);
+        assertEquals(List.of("shard-00000", "shard-00001", "shard-00002"), shardDirs(dir));
+
+        Files.createDirectory(dir.resolve("other"));
+        assertEquals(3, ShardedExporter.removeShards(dir).size());
+        export(dir, 2, 3);
+        assertEquals(List.of("other", "shard-00000"), shardDirs(dir));
+        String manifest = Files.readString(dir.resolve(ShardedExporter.MANIFEST_FILE));
+        assertTrue(manifest.contains("shard-00000") && !manifest.contains("shard-00001"), manifest);
+    }
+
+    @Test
+    void missingOutputDirectoryHasNoShards(@TempDir Path dir) throws IOException {
+        assertTrue(ShardedExporter.removeShards(dir.resolve("missing")).isEmpty());
+    }
+}